@@ -0,0 +1,296 @@
+package com.example.login.benchmark;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.example.login.metrics.AuthMetrics;
+import com.example.login.models.CustomPersistentToken;
+import com.example.login.models.ERole;
+import com.example.login.models.Role;
+import com.example.login.models.User;
+import com.example.login.repository.CustomPersistentTokenRepository;
+import com.example.login.repository.RevokedTokenRepository;
+import com.example.login.repository.RoleRepository;
+import com.example.login.repository.TokenCredentials;
+import com.example.login.repository.UserCredentials;
+import com.example.login.repository.UserRepository;
+import com.example.login.security.jwt.AuthTokenFilter;
+import com.example.login.security.jwt.JwtKeyRing;
+import com.example.login.security.jwt.JwtRevocationList;
+import com.example.login.security.jwt.JwtUtils;
+import com.example.login.security.jwt.UserDetailsVerificationUtils;
+import com.example.login.security.services.PrincipalSourceResolver;
+import com.example.login.security.services.RoleRegistry;
+import com.example.login.security.services.TokenDetailsServiceImpl;
+import com.example.login.security.services.UserDetailsImpl;
+import com.example.login.security.services.UserDetailsServiceImpl;
+import com.example.login.security.services.InMemoryPersistentTokenStore;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.query.LdapQuery;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Wires the authentication hot path the way Spring does, with the repositories and the directory
+ * stubbed so that the benchmarks only measure the application code.
+ *
+ * @author sy
+ */
+public class AuthFixture {
+
+  public static final String DAO_USERNAME = "johndoe";
+
+  public static final String LDAP_USERNAME = "janedoe";
+
+  public static final String JWT_SECRET =
+      "tGzFtiwy1bLFlYUxwRzo0ebSeCmOKREvmbvfwfcETTpVfoCIYui8cyVbc+yzivDoB7vPq6ZMD5HJ9R9aj/glQA==";
+
+  public static final int JWT_EXPIRATION_MS = 86400000;
+
+  public final UserRepository userRepository = mock(UserRepository.class);
+
+  public final CustomPersistentTokenRepository tokenRepository =
+      mock(CustomPersistentTokenRepository.class);
+
+  public final RoleRepository roleRepository = mock(RoleRepository.class);
+
+  public final RevokedTokenRepository revokedTokenRepository = mock(RevokedTokenRepository.class);
+
+  public final LdapTemplate ldapTemplate = mock(LdapTemplate.class);
+
+  public final PlatformTransactionManager transactionManager =
+      mock(PlatformTransactionManager.class);
+
+  public final AuthMetrics authMetrics = new AuthMetrics(new SimpleMeterRegistry());
+
+  public final RoleRegistry roleRegistry = new RoleRegistry();
+
+  public final UserDetailsServiceImpl userDetailsService = new UserDetailsServiceImpl();
+
+  public final InMemoryPersistentTokenStore tokenStore = new InMemoryPersistentTokenStore();
+
+  public final TokenDetailsServiceImpl tokenDetailsService = new TokenDetailsServiceImpl();
+
+  public final PrincipalSourceResolver principalSourceResolver = new PrincipalSourceResolver();
+
+  public final UserDetailsVerificationUtils userDetailsVerificationUtils =
+      new UserDetailsVerificationUtils();
+
+  public final JwtRevocationList revocationList = new JwtRevocationList();
+
+  /** Disabled, the jwt are signed with the secret. */
+  public final JwtKeyRing keyRing = new JwtKeyRing();
+
+  public final JwtUtils jwtUtils = new JwtUtils();
+
+  public final AuthTokenFilter authTokenFilter = new AuthTokenFilter();
+
+  public final User daoUser;
+
+  public final String daoJwt;
+
+  public final String ldapJwt;
+
+  public final List<UserCredentials> daoRows = new ArrayList<>();
+
+  public final List<TokenCredentials> ldapRows = new ArrayList<>();
+
+  /**
+   * Creates the fixture.
+   *
+   * @param jwtCacheMaximumSize size of the verified claims cache, 0 to verify every jwt
+   */
+  public AuthFixture(long jwtCacheMaximumSize) {
+    this(jwtCacheMaximumSize, false);
+  }
+
+  /**
+   * Creates the fixture.
+   *
+   * @param jwtCacheMaximumSize size of the verified claims cache, 0 to verify every jwt
+   * @param stateless whether the jwt carry the principal claims the requests are authenticated from
+   */
+  @SuppressWarnings("unchecked")
+  public AuthFixture(long jwtCacheMaximumSize, boolean stateless) {
+    ReflectionTestUtils.setField(roleRegistry, "roleRepository", roleRepository);
+
+    ReflectionTestUtils.setField(userDetailsService, "userRepository", userRepository);
+    ReflectionTestUtils.setField(userDetailsService, "transactionManager", transactionManager);
+    ReflectionTestUtils.setField(userDetailsService, "authMetrics", authMetrics);
+    ReflectionTestUtils.setField(userDetailsService, "userCacheMaximumSize", 10000L);
+    ReflectionTestUtils.setField(userDetailsService, "userCacheTtlMs", 300000L);
+    ReflectionTestUtils.invokeMethod(userDetailsService, "initUserCache");
+
+    ReflectionTestUtils.setField(tokenStore, "tokenRepository", tokenRepository);
+    ReflectionTestUtils.setField(tokenStore, "transactionManager", transactionManager);
+    ReflectionTestUtils.setField(tokenStore, "authMetrics", authMetrics);
+    ReflectionTestUtils.setField(tokenStore, "writeQueueCapacity", 10000);
+    ReflectionTestUtils.setField(tokenStore, "writeBatchSize", 50);
+    ReflectionTestUtils.setField(tokenStore, "tokenCacheMaximumSize", 10000L);
+    ReflectionTestUtils.setField(tokenStore, "tokenCacheTtlMs", 300000L);
+    ReflectionTestUtils.invokeMethod(tokenStore, "init");
+
+    ReflectionTestUtils.setField(tokenDetailsService, "tokenStore", tokenStore);
+    ReflectionTestUtils.setField(tokenDetailsService, "ldapTemplate", ldapTemplate);
+    ReflectionTestUtils.setField(tokenDetailsService, "roleRegistry", roleRegistry);
+    ReflectionTestUtils.setField(tokenDetailsService, "authMetrics", authMetrics);
+    ReflectionTestUtils.setField(tokenDetailsService, "ticker", Ticker.systemTicker());
+    ReflectionTestUtils.setField(tokenDetailsService, "clock", Clock.systemUTC());
+    ReflectionTestUtils.setField(tokenDetailsService, "userSearchBase", "ou=people");
+    ReflectionTestUtils.setField(tokenDetailsService, "userSearchAttribute", "uid");
+    ReflectionTestUtils.setField(tokenDetailsService, "existenceCacheMaximumSize", 10000L);
+    ReflectionTestUtils.setField(tokenDetailsService, "existenceCacheTtlMs", 600000L);
+    ReflectionTestUtils.setField(tokenDetailsService, "existenceCacheRefreshMs", 60000L);
+    ReflectionTestUtils.invokeMethod(tokenDetailsService, "initExistenceCache");
+
+    ReflectionTestUtils.setField(
+        principalSourceResolver, "userDetailsService", userDetailsService);
+    ReflectionTestUtils.setField(principalSourceResolver, "authMetrics", authMetrics);
+    ReflectionTestUtils.setField(principalSourceResolver, "maximumSize", 10000L);
+    ReflectionTestUtils.setField(principalSourceResolver, "ttlMs", 60000L);
+    ReflectionTestUtils.invokeMethod(principalSourceResolver, "initSourceCache");
+
+    ReflectionTestUtils.setField(
+        userDetailsVerificationUtils, "userDetailsService", userDetailsService);
+    ReflectionTestUtils.setField(
+        userDetailsVerificationUtils, "tokenDetailsService", tokenDetailsService);
+    ReflectionTestUtils.setField(
+        userDetailsVerificationUtils, "principalSourceResolver", principalSourceResolver);
+    ReflectionTestUtils.setField(userDetailsVerificationUtils, "tokenStore", tokenStore);
+    ReflectionTestUtils.setField(
+        userDetailsVerificationUtils, "revocationList", revocationList);
+    ReflectionTestUtils.setField(userDetailsVerificationUtils, "authMetrics", authMetrics);
+    ReflectionTestUtils.setField(userDetailsVerificationUtils, "ticker", Ticker.systemTicker());
+    ReflectionTestUtils.setField(userDetailsVerificationUtils, "statelessEnabled", stateless);
+    ReflectionTestUtils.setField(userDetailsVerificationUtils, "revalidateMs", 60000L);
+    ReflectionTestUtils.setField(
+        userDetailsVerificationUtils, "revalidatedMaximumSize", 10000L);
+    ReflectionTestUtils.invokeMethod(userDetailsVerificationUtils, "initRevalidatedCache");
+
+    ReflectionTestUtils.setField(revocationList, "revokedTokenRepository", revokedTokenRepository);
+    ReflectionTestUtils.setField(revocationList, "authMetrics", authMetrics);
+    ReflectionTestUtils.setField(revocationList, "syncOverlapMs", 60000L);
+    ReflectionTestUtils.invokeMethod(revocationList, "init");
+
+    ReflectionTestUtils.setField(jwtUtils, "jwtSecret", JWT_SECRET);
+    ReflectionTestUtils.setField(jwtUtils, "jwtExpirationMs", JWT_EXPIRATION_MS);
+    ReflectionTestUtils.setField(jwtUtils, "jwtCacheMaximumSize", jwtCacheMaximumSize);
+    ReflectionTestUtils.setField(jwtUtils, "jwtMaxLength", 8192);
+    ReflectionTestUtils.setField(jwtUtils, "failureLogPermitsPerSecond", 10);
+    ReflectionTestUtils.setField(jwtUtils, "statelessEnabled", stateless);
+    ReflectionTestUtils.setField(jwtUtils, "revocationList", revocationList);
+    ReflectionTestUtils.setField(jwtUtils, "roleRegistry", roleRegistry);
+    ReflectionTestUtils.setField(jwtUtils, "keyRing", keyRing);
+    ReflectionTestUtils.setField(jwtUtils, "authMetrics", authMetrics);
+    ReflectionTestUtils.setField(jwtUtils, "clock", Clock.systemUTC());
+    ReflectionTestUtils.invokeMethod(jwtUtils, "init");
+
+    ReflectionTestUtils.setField(authTokenFilter, "jwtUtils", jwtUtils);
+    ReflectionTestUtils.setField(
+        authTokenFilter, "userDetailsVerificationUtils", userDetailsVerificationUtils);
+
+    Role userRole = new Role(1, ERole.ROLE_USER);
+    Role moderatorRole = new Role(2, ERole.ROLE_MODERATOR);
+    Role adminRole = new Role(3, ERole.ROLE_ADMIN);
+    when(roleRepository.findAll()).thenReturn(Arrays.asList(userRole, moderatorRole, adminRole));
+
+    Set<Role> roles = new HashSet<>(Arrays.asList(userRole, moderatorRole));
+    // Roles of the persistent token, as granted by the directory
+    Set<Role> ldapRoles = new HashSet<>(Arrays.asList(userRole, adminRole));
+
+    daoUser = new User(1L, DAO_USERNAME, "$2a$10$somerandomhashedpassword", roles, 0L, 0L);
+    UserDetailsImpl daoPrincipal = UserDetailsImpl.build(daoUser);
+    daoJwt =
+        jwtUtils.generateJwtToken(
+            new UsernamePasswordAuthenticationToken(
+                daoPrincipal, null, daoPrincipal.getAuthorities()));
+    ldapJwt =
+        jwtUtils.generateJwtToken(
+            new UsernamePasswordAuthenticationToken(
+                LDAP_USERNAME,
+                null,
+                AuthorityUtils.createAuthorityList("ROLE_DOMAIN_USERS", "ROLE_ADMIN")));
+
+    CustomPersistentToken ldapToken =
+        new CustomPersistentToken(
+            2L,
+            LDAP_USERNAME,
+            tokenDetailsService.generateSeriesData(ldapJwt),
+            new Date(),
+            ldapRoles);
+
+    for (Role role : roles) {
+      daoRows.add(
+          new CredentialsRow(daoUser.getId(), DAO_USERNAME, daoUser.getPassword(), role.getName()));
+    }
+    for (Role role : ldapRoles) {
+      ldapRows.add(
+          new CredentialsRow(
+              ldapToken.getId(), LDAP_USERNAME, ldapToken.getSeries(), role.getName()));
+    }
+
+    when(userRepository.findCredentialsByUsername(DAO_USERNAME)).thenReturn(daoRows);
+    when(userRepository.findCredentialsByUsername(LDAP_USERNAME))
+        .thenReturn(Collections.emptyList());
+    when(tokenRepository.findCredentialsByUsername(LDAP_USERNAME))
+        .thenReturn(ldapRows);
+    when(ldapTemplate.search(any(LdapQuery.class), any(AttributesMapper.class)))
+        .thenReturn(Collections.singletonList(LDAP_USERNAME));
+  }
+
+  /**
+   * Creates the {@link UsernamePasswordAuthenticationToken} of a DAO principal.
+   *
+   * @param username Value to authenticate
+   * @return the {@link UsernamePasswordAuthenticationToken}
+   */
+  public UsernamePasswordAuthenticationToken authentication(String username) {
+    UserDetailsImpl principal =
+        new UserDetailsImpl(1L, username, null, Collections.emptyList(), null);
+    return new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+  }
+
+  /** A row of the credentials projections, the password doubling as series. */
+  @AllArgsConstructor
+  @Getter
+  private static class CredentialsRow implements UserCredentials, TokenCredentials {
+    private final Long id;
+
+    private final String username;
+
+    private final String password;
+
+    private final ERole roleName;
+
+    @Override
+    public String getSeries() {
+      return password;
+    }
+
+    @Override
+    public Date getLastUsed() {
+      return null;
+    }
+
+    @Override
+    public Long getCredentialsVersion() {
+      return 0L;
+    }
+  }
+}
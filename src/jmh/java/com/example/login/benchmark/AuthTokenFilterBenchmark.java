@@ -0,0 +1,63 @@
+package com.example.login.benchmark;
+
+import jakarta.servlet.ServletException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Benchmark of a request going through {@link com.example.login.security.jwt.AuthTokenFilter}, for
+ * a DAO user and for an LDAP user, with the repositories and the directory stubbed, verified
+ * against the stores or from the claims in the stateless mode.
+ *
+ * @author sy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AuthTokenFilterBenchmark {
+
+  @Param({"DAO", "LDAP"})
+  public String source;
+
+  @Param({"false", "true"})
+  public boolean stateless;
+
+  private AuthFixture fixture;
+
+  private MockHttpServletRequest request;
+
+  private MockHttpServletResponse response;
+
+  @Setup
+  public void setUp() {
+    fixture = new AuthFixture(10000, stateless);
+    String jwt = "DAO".equals(source) ? fixture.daoJwt : fixture.ldapJwt;
+
+    request = new MockHttpServletRequest("GET", "/api/test/user");
+    request.addHeader("Authorization", "Bearer " + jwt);
+    response = new MockHttpServletResponse();
+  }
+
+  @Benchmark
+  public Authentication doFilter() throws IOException, ServletException {
+    try {
+      fixture.authTokenFilter.doFilter(request, response, new MockFilterChain());
+      return SecurityContextHolder.getContext().getAuthentication();
+    } finally {
+      SecurityContextHolder.clearContext();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.example.login.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Benchmarks of {@link com.example.login.security.jwt.JwtUtils}, with and without the verified
+ * claims cache.
+ *
+ * @author sy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JwtUtilsBenchmark {
+
+  @Param({"0", "10000"})
+  public long jwtCacheMaximumSize;
+
+  private AuthFixture fixture;
+
+  private Authentication authentication;
+
+  @Setup
+  public void setUp() {
+    fixture = new AuthFixture(jwtCacheMaximumSize);
+    authentication = fixture.authentication(AuthFixture.DAO_USERNAME);
+  }
+
+  @Benchmark
+  public String generateJwtToken() {
+    return fixture.jwtUtils.generateJwtToken(authentication);
+  }
+
+  @Benchmark
+  public boolean validateJwtToken() {
+    return fixture.jwtUtils.validateJwtToken(fixture.daoJwt);
+  }
+
+  @Benchmark
+  public String getUserNameFromJwtToken() {
+    return fixture.jwtUtils.getUserNameFromJwtToken(fixture.daoJwt);
+  }
+}
@@ -0,0 +1,61 @@
+package com.example.login.benchmark;
+
+import com.example.login.models.CustomPersistentToken;
+import com.example.login.security.services.TokenDetailsImpl;
+import com.example.login.security.services.UserDetailsImpl;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the {@link UserDetailsImpl} and {@link TokenDetailsImpl} builders.
+ *
+ * @author sy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PrincipalBuildBenchmark {
+
+  private AuthFixture fixture;
+
+  private CustomPersistentToken token;
+
+  @Setup
+  public void setUp() {
+    fixture = new AuthFixture(10000);
+    token =
+        new CustomPersistentToken(
+            2L,
+            AuthFixture.LDAP_USERNAME,
+            fixture.tokenDetailsService.generateSeriesData(fixture.ldapJwt),
+            new Date(),
+            fixture.daoUser.getRoles());
+  }
+
+  @Benchmark
+  public UserDetailsImpl buildUserDetails() {
+    return UserDetailsImpl.build(fixture.daoUser);
+  }
+
+  @Benchmark
+  public TokenDetailsImpl buildTokenDetails() {
+    return TokenDetailsImpl.build(token);
+  }
+
+  @Benchmark
+  public UserDetailsImpl buildUserDetailsFromRows() {
+    return UserDetailsImpl.build(fixture.daoRows);
+  }
+
+  @Benchmark
+  public TokenDetailsImpl buildTokenDetailsFromRows() {
+    return TokenDetailsImpl.build(fixture.ldapRows);
+  }
+}
@@ -0,0 +1,62 @@
+package com.example.login.benchmark;
+
+import com.example.login.security.services.TokenDetailsImpl;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the series generation and comparison of {@link
+ * com.example.login.security.services.TokenDetailsServiceImpl}.
+ *
+ * @author sy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SeriesBenchmark {
+
+  private AuthFixture fixture;
+
+  private String series;
+
+  private String legacySeries;
+
+  /** A token as cached by the token store, its series digest decoded once. */
+  private TokenDetailsImpl cachedToken;
+
+  @Setup
+  public void setUp() {
+    fixture = new AuthFixture(10000);
+    series = fixture.tokenDetailsService.generateSeriesData(fixture.ldapJwt);
+    legacySeries = Base64.getEncoder().encodeToString(fixture.ldapJwt.getBytes());
+    cachedToken = new TokenDetailsImpl(1L, "bob", series, Collections.emptyList(), null);
+  }
+
+  @Benchmark
+  public String generateSeriesData() {
+    return fixture.tokenDetailsService.generateSeriesData(fixture.ldapJwt);
+  }
+
+  @Benchmark
+  public boolean compareSeries() {
+    return fixture.tokenDetailsService.compareSeries(fixture.ldapJwt, series);
+  }
+
+  @Benchmark
+  public boolean compareCachedSeries() {
+    return fixture.tokenDetailsService.compareSeries(fixture.ldapJwt, cachedToken);
+  }
+
+  @Benchmark
+  public boolean compareLegacySeries() {
+    return fixture.tokenDetailsService.compareSeries(fixture.ldapJwt, legacySeries);
+  }
+}
@@ -0,0 +1,36 @@
+package com.example.login;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import java.time.Clock;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Provides the time sources of the components whose behaviour depends on the time passing, so that
+ * it can be advanced instead of waited for.
+ *
+ * @author sy
+ */
+@Configuration
+public class ClockConfig {
+
+  /**
+   * Wall clock of the issue dates and of the dates stored with the tokens.
+   *
+   * @return the system {@link Clock}
+   */
+  @Bean
+  public Clock clock() {
+    return Clock.systemUTC();
+  }
+
+  /**
+   * Time source of the expiration and refresh of the caches.
+   *
+   * @return the system {@link Ticker}
+   */
+  @Bean
+  public Ticker ticker() {
+    return Ticker.systemTicker();
+  }
+}
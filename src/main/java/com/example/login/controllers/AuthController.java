@@ -1,38 +1,59 @@
 package com.example.login.controllers;
 
-import com.example.login.models.CustomPersistentToken;
 import com.example.login.models.ERole;
 import com.example.login.models.Role;
 import com.example.login.models.User;
+import com.example.login.payload.request.BatchTokenVerificationRequest;
 import com.example.login.payload.request.LoginRequest;
+import com.example.login.payload.request.RefreshTokenRequest;
 import com.example.login.payload.request.SignupRequest;
 import com.example.login.payload.request.TokenVerificationRequest;
+import com.example.login.payload.response.BatchTokenVerificationResponse;
 import com.example.login.payload.response.JwtResponse;
 import com.example.login.payload.response.MessageResponse;
-import com.example.login.repository.CustomPersistentTokenRepository;
-import com.example.login.repository.RoleRepository;
+import com.example.login.payload.response.TokenVerificationResult;
 import com.example.login.repository.UserRepository;
+import com.example.login.security.jwt.JwtClaims;
 import com.example.login.security.jwt.JwtUtils;
 import com.example.login.security.jwt.UserDetailsVerificationUtils;
+import com.example.login.security.services.RefreshTokenService;
+import com.example.login.security.services.RefreshedToken;
+import com.example.login.security.services.RoleRegistry;
+import com.example.login.security.services.TokenDetailsImpl;
 import com.example.login.security.services.TokenDetailsServiceImpl;
 import com.example.login.security.services.UserDetailsImpl;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import javax.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.ldap.userdetails.LdapUserDetailsImpl;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -46,40 +67,54 @@ import org.springframework.web.bind.annotation.RestController;
 @CrossOrigin(origins = "*", maxAge = 3600)
 @Slf4j
 @RestController
+@ConditionalOnWebApplication(type = Type.SERVLET)
 @RequestMapping("/api/auth")
 public class AuthController {
   @Autowired private AuthenticationManager authenticationManager;
 
-  @Autowired private CustomPersistentTokenRepository tokenRepository;
-
   @Autowired private UserRepository userRepository;
 
-  @Autowired private RoleRepository roleRepository;
+  @Autowired private RoleRegistry roleRegistry;
 
   @Autowired private PasswordEncoder encoder;
 
   @Autowired private TokenDetailsServiceImpl tokenDetailsService;
 
+  @Autowired private RefreshTokenService refreshTokenService;
+
   @Autowired private JwtUtils jwtUtils;
 
   @Autowired private UserDetailsVerificationUtils userDetailsVerificationUtils;
 
+  @Autowired
+  @Qualifier("passwordHashingExecutor")
+  private Executor passwordHashingExecutor;
+
+  @Autowired
+  @Qualifier("tokenVerificationExecutor")
+  private Executor tokenVerificationExecutor;
+
   /**
-   * Performs the sign in request.
+   * Performs the sign in request. The credentials are verified on the password hashing executor,
+   * keeping the request threads available for the other endpoints.
    *
    * @param loginRequest the {@link LoginRequest} payload
    * @return the result
    */
   @PostMapping("/signin")
-  public ResponseEntity<?> authenticateUser(@Valid @RequestBody LoginRequest loginRequest) {
+  public CompletableFuture<ResponseEntity<?>> authenticateUser(
+      @Valid @RequestBody LoginRequest loginRequest) {
+    return CompletableFuture.supplyAsync(() -> signin(loginRequest), passwordHashingExecutor);
+  }
 
+  private ResponseEntity<?> signin(LoginRequest loginRequest) {
     Authentication authentication =
         authenticationManager.authenticate(
             new UsernamePasswordAuthenticationToken(
                 loginRequest.getUsername(), loginRequest.getPassword()));
 
-    SecurityContextHolder.getContext().setAuthentication(authentication);
     String jwt = jwtUtils.generateJwtToken(authentication);
+    String refreshToken = refreshTokenService.issue(authentication, jwt);
 
     if (authentication.getPrincipal() instanceof LdapUserDetailsImpl) {
       LdapUserDetailsImpl userDetails = (LdapUserDetailsImpl) authentication.getPrincipal();
@@ -88,13 +123,11 @@ public class AuthController {
               .map(GrantedAuthority::getAuthority)
               .collect(Collectors.toList());
 
-      CustomPersistentToken token =
-          tokenRepository
-              .findByUsername(userDetails.getUsername())
-              .orElseThrow(() -> new UsernameNotFoundException("User Not Found with username"));
+      // Persisted off the sign in path, visible to the verification right away
+      TokenDetailsImpl token = tokenDetailsService.onLoginSuccess(authentication, jwt);
 
       return ResponseEntity.ok(
-          new JwtResponse(jwt, token.getId(), userDetails.getUsername(), roles));
+          new JwtResponse(jwt, refreshToken, token.getId(), userDetails.getUsername(), roles));
     } else {
       UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
       List<String> roles =
@@ -103,18 +136,25 @@ public class AuthController {
               .collect(Collectors.toList());
 
       return ResponseEntity.ok(
-          new JwtResponse(jwt, userDetails.getId(), userDetails.getUsername(), roles));
+          new JwtResponse(
+              jwt, refreshToken, userDetails.getId(), userDetails.getUsername(), roles));
     }
   }
 
   /**
-   * Performs the sign in request.
+   * Performs the sign up request. The password is hashed on the password hashing executor, keeping
+   * the request threads available for the other endpoints.
    *
    * @param signUpRequest the {@link SignupRequest} payload
    * @return the result
    */
   @PostMapping("/signup")
-  public ResponseEntity<?> registerUser(@Valid @RequestBody SignupRequest signUpRequest) {
+  public CompletableFuture<ResponseEntity<?>> registerUser(
+      @Valid @RequestBody SignupRequest signUpRequest) {
+    return CompletableFuture.supplyAsync(() -> register(signUpRequest), passwordHashingExecutor);
+  }
+
+  private ResponseEntity<?> register(SignupRequest signUpRequest) {
     if (userRepository.existsByUsername(signUpRequest.getUsername())) {
       return ResponseEntity.badRequest()
           .body(new MessageResponse("Error: Username is already taken!"));
@@ -127,39 +167,9 @@ public class AuthController {
     Set<Role> roles = new HashSet<>();
 
     if (strRoles == null) {
-      Role userRole =
-          roleRepository
-              .findByName(ERole.ROLE_USER)
-              .orElseThrow(() -> new RuntimeException("Error: Role is not found."));
-      roles.add(userRole);
+      roles.add(roleRegistry.getRole(ERole.ROLE_USER));
     } else {
-      strRoles.forEach(
-          role -> {
-            switch (role) {
-              case "admin":
-                Role adminRole =
-                    roleRepository
-                        .findByName(ERole.ROLE_ADMIN)
-                        .orElseThrow(() -> new RuntimeException("Error: Role is not found."));
-                roles.add(adminRole);
-
-                break;
-              case "mod":
-                Role modRole =
-                    roleRepository
-                        .findByName(ERole.ROLE_MODERATOR)
-                        .orElseThrow(() -> new RuntimeException("Error: Role is not found."));
-                roles.add(modRole);
-
-                break;
-              default:
-                Role userRole =
-                    roleRepository
-                        .findByName(ERole.ROLE_USER)
-                        .orElseThrow(() -> new RuntimeException("Error: Role is not found."));
-                roles.add(userRole);
-            }
-          });
+      strRoles.forEach(role -> roles.add(roleRegistry.getRequestedRole(role)));
     }
 
     user.setRoles(roles);
@@ -169,61 +179,83 @@ public class AuthController {
   }
 
   /**
-   * Performs the sign out request.
+   * Performs the sign out request, revoking the jwt of the request until it expires together with
+   * its refresh token.
    *
+   * @param request the request carrying the jwt
    * @return the result
    */
   @PostMapping("/signout")
-  public ResponseEntity<?> logoutUser() {
+  public ResponseEntity<?> logoutUser(HttpServletRequest request) {
 
     tokenDetailsService.logout(SecurityContextHolder.getContext().getAuthentication());
 
+    String jwt = jwtUtils.parseJwt(request);
+    Optional<JwtClaims> claims = jwt != null ? jwtUtils.parseJwtToken(jwt) : Optional.empty();
+    if (claims.isPresent()) {
+      refreshTokenService.revokeByAccessJti(claims.get().getId());
+      jwtUtils.revokeJwtToken(jwt);
+    }
+
     return ResponseEntity.ok(new MessageResponse("Logout successfully!"));
   }
 
   /**
-   * Performs the jwt verification.
+   * Performs the refresh request, exchanging a refresh token for a new access token and the next
+   * refresh token. The refresh token cannot be used again.
+   *
+   * @param refreshTokenRequest the refresh token
+   * @return the result
+   */
+  @PostMapping("/refresh")
+  public CompletableFuture<ResponseEntity<?>> refreshToken(
+      @Valid @RequestBody RefreshTokenRequest refreshTokenRequest) {
+    return CompletableFuture.supplyAsync(
+        () -> refresh(refreshTokenRequest), tokenVerificationExecutor);
+  }
+
+  private ResponseEntity<?> refresh(RefreshTokenRequest refreshTokenRequest) {
+    RefreshedToken refreshed = refreshTokenService.refresh(refreshTokenRequest.getRefreshToken());
+
+    UserDetails principal = refreshed.getPrincipal();
+    Long id =
+        principal instanceof UserDetailsImpl
+            ? ((UserDetailsImpl) principal).getId()
+            : ((TokenDetailsImpl) principal).getId();
+    List<String> roles =
+        principal.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .collect(Collectors.toList());
+
+    return ResponseEntity.ok(
+        new JwtResponse(
+            refreshed.getAccessToken(),
+            refreshed.getRefreshToken(),
+            id,
+            principal.getUsername(),
+            roles));
+  }
+
+  /**
+   * Performs the jwt verification. The lookups run on the token verification executor, the request
+   * thread is released until the result is ready.
    *
    * @param tokenVerificationRequest the jwt
    * @return the result
    */
   @PostMapping("/verify")
-  public ResponseEntity<?> verifyToken(
+  public CompletableFuture<ResponseEntity<?>> verifyToken(
       @Valid @RequestBody TokenVerificationRequest tokenVerificationRequest) {
+    return CompletableFuture.supplyAsync(
+        () -> verify(tokenVerificationRequest), tokenVerificationExecutor);
+  }
+
+  private ResponseEntity<?> verify(TokenVerificationRequest tokenVerificationRequest) {
     try {
       String jwt = tokenVerificationRequest.getToken();
-      if (jwtUtils.validateJwtToken(jwt)) {
-        String username = jwtUtils.getUserNameFromJwtToken(jwt);
-
-        UsernamePasswordAuthenticationToken authenticationToken;
-        try {
-          // First find the username from dao
-          authenticationToken = userDetailsVerificationUtils.verifyFromDao(username);
-
-          UserDetailsImpl userDetails = (UserDetailsImpl) authenticationToken.getPrincipal();
-
-          List<String> roles =
-              authenticationToken.getAuthorities().stream()
-                  .map(GrantedAuthority::getAuthority)
-                  .collect(Collectors.toList());
-
-          return ResponseEntity.ok(new JwtResponse(jwt, userDetails.getId(), username, roles));
-        } catch (UsernameNotFoundException ex) {
-          // If not find the username from ldap
-          authenticationToken = userDetailsVerificationUtils.verifyFromLdap(username, jwt);
-
-          List<String> roles =
-              authenticationToken.getAuthorities().stream()
-                  .map(GrantedAuthority::getAuthority)
-                  .collect(Collectors.toList());
-
-          CustomPersistentToken token =
-              tokenRepository
-                  .findByUsername(username)
-                  .orElseThrow(() -> new UsernameNotFoundException("User Not Found with username"));
-
-          return ResponseEntity.ok(new JwtResponse(jwt, token.getId(), username, roles));
-        }
+      Optional<JwtClaims> claims = jwtUtils.parseJwtToken(jwt);
+      if (claims.isPresent()) {
+        return ResponseEntity.ok(verifyPrincipal(jwt, claims.get()));
       }
     } catch (Exception e) {
       log.error(e.getMessage());
@@ -231,4 +263,115 @@ public class AuthController {
     }
     return ResponseEntity.badRequest().body(new MessageResponse("Error: Invalid token!"));
   }
+
+  /**
+   * Performs the verification of a batch of jwt, returning one result per jwt in request order.
+   * Each distinct jwt is verified once, the signatures are checked in parallel and the principals
+   * not in memory are loaded with one query per store.
+   *
+   * @param batchTokenVerificationRequest the jwt
+   * @return the result
+   */
+  @PostMapping("/verify/batch")
+  public CompletableFuture<ResponseEntity<?>> verifyTokens(
+      @Valid @RequestBody BatchTokenVerificationRequest batchTokenVerificationRequest) {
+    return CompletableFuture.supplyAsync(
+        () -> verifyBatch(batchTokenVerificationRequest), tokenVerificationExecutor);
+  }
+
+  private ResponseEntity<?> verifyBatch(
+      BatchTokenVerificationRequest batchTokenVerificationRequest) {
+    List<String> tokens = batchTokenVerificationRequest.getTokens();
+
+    // Signature checks are CPU bound, the calling thread takes part in the parallel stream
+    Map<String, Optional<JwtClaims>> claims =
+        new HashSet<>(tokens)
+            .parallelStream()
+            .collect(Collectors.toConcurrentMap(Function.identity(), jwtUtils::parseJwtToken));
+
+    Set<String> usernames =
+        claims.values().stream()
+            .filter(Optional::isPresent)
+            .map(it -> it.get().getUsername())
+            .collect(Collectors.toSet());
+    try {
+      userDetailsVerificationUtils.preload(usernames);
+    } catch (Exception e) {
+      // Left to the verification of each jwt
+      log.error(e.getMessage());
+    }
+
+    Map<String, TokenVerificationResult> results = new HashMap<>();
+    claims.forEach((jwt, jwtClaims) -> results.put(jwt, verifyResult(jwt, jwtClaims)));
+
+    return ResponseEntity.ok(
+        new BatchTokenVerificationResponse(
+            tokens.stream().map(results::get).collect(Collectors.toList())));
+  }
+
+  private TokenVerificationResult verifyResult(String jwt, Optional<JwtClaims> claims) {
+    try {
+      if (claims.isPresent()) {
+        return TokenVerificationResult.valid(verifyPrincipal(jwt, claims.get()));
+      }
+    } catch (Exception e) {
+      log.error(e.getMessage());
+    }
+    return TokenVerificationResult.invalid(jwt);
+  }
+
+  /**
+   * Verify the principal of the given jwt against the store its username belongs to.
+   *
+   * @param jwt the jwt
+   * @param claims the claims of the jwt, signature already verified
+   * @return the {@link JwtResponse} of the principal
+   */
+  private JwtResponse verifyPrincipal(String jwt, JwtClaims claims) {
+    String username = claims.getUsername();
+
+    // Verify against the store the username belongs to, or the claims in the stateless mode
+    UsernamePasswordAuthenticationToken authenticationToken =
+        userDetailsVerificationUtils.verify(claims, jwt);
+
+    Object principal = authenticationToken.getPrincipal();
+    Long id =
+        principal instanceof UserDetailsImpl
+            ? ((UserDetailsImpl) principal).getId()
+            : ((TokenDetailsImpl) principal).getId();
+
+    List<String> roles =
+        authenticationToken.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .collect(Collectors.toList());
+
+    return new JwtResponse(jwt, id, username, roles);
+  }
+
+  /**
+   * Rejects the request when the password hashing or token verification executor is saturated.
+   *
+   * @param e the rejection
+   * @return the 503 result
+   */
+  @ExceptionHandler(RejectedExecutionException.class)
+  public ResponseEntity<?> handleRejectedExecution(RejectedExecutionException e) {
+    log.warn("Executor saturated: {}", e.getMessage());
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, "1")
+        .body(new MessageResponse("Error: Server busy, please retry later!"));
+  }
+
+  /**
+   * Rejects the sign in when the credentials are not valid.
+   *
+   * @param e the authentication failure
+   * @return the 401 result
+   */
+  @ExceptionHandler(AuthenticationException.class)
+  public ResponseEntity<?> handleAuthenticationException(AuthenticationException e) {
+    log.error("Unauthorized error: {}", e.getMessage());
+    return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+        .body(new MessageResponse("Error: Unauthorized"));
+  }
 }
@@ -0,0 +1,93 @@
+package com.example.login.controllers;
+
+import com.example.login.payload.response.JsonWebKey;
+import com.example.login.payload.response.JsonWebKeySetResponse;
+import com.example.login.security.jwt.JwtKeyRing;
+import com.example.login.security.jwt.JwtSigningKey;
+import com.example.login.security.jwt.TokenDigests;
+import java.math.BigInteger;
+import java.security.spec.ECPoint;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+/**
+ * Publishes the public keys of the {@link JwtKeyRing}, so that other services verify the jwt
+ * offline instead of calling the verification endpoint.
+ *
+ * @author sy
+ */
+@CrossOrigin(origins = "*", maxAge = 3600)
+@RestController
+@ConditionalOnWebApplication(type = Type.SERVLET)
+public class JwksController {
+
+  /** Length of a P-256 coordinate. */
+  private static final int COORDINATE_BYTES = 32;
+
+  private static final Base64.Encoder COORDINATE_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  @Value("${examplelogin.app.jwtKeys.jwksMaxAgeS:300}")
+  private long jwksMaxAgeS;
+
+  @Autowired private JwtKeyRing keyRing;
+
+  /**
+   * Retrieve the published keys. The set is cacheable for jwksMaxAgeS, each key being published a
+   * rotation ahead of its activation, and revalidated with its ETag.
+   *
+   * @param request the request, checked for a matching If-None-Match
+   * @return the {@link JsonWebKeySetResponse} or 304 if not modified
+   */
+  @GetMapping("/.well-known/jwks.json")
+  public ResponseEntity<JsonWebKeySetResponse> jwks(WebRequest request) {
+    Collection<JwtSigningKey> publishedKeys = keyRing.publishedKeys();
+    String etag =
+        "\""
+            + TokenDigests.fingerprint(
+                publishedKeys.stream()
+                    .map(JwtSigningKey::getKid)
+                    .collect(Collectors.joining(",")))
+            + "\"";
+    if (request.checkNotModified(etag)) {
+      return null;
+    }
+
+    List<JsonWebKey> keys =
+        publishedKeys.stream().map(this::toJsonWebKey).collect(Collectors.toList());
+    return ResponseEntity.ok()
+        .cacheControl(CacheControl.maxAge(jwksMaxAgeS, TimeUnit.SECONDS).cachePublic())
+        .eTag(etag)
+        .body(new JsonWebKeySetResponse(keys));
+  }
+
+  private JsonWebKey toJsonWebKey(JwtSigningKey key) {
+    ECPoint point = key.getPublicKey().getW();
+    return JsonWebKey.builder()
+        .kid(key.getKid())
+        .x(encodeCoordinate(point.getAffineX()))
+        .y(encodeCoordinate(point.getAffineY()))
+        .build();
+  }
+
+  /** Encodes the coordinate as the unsigned big-endian bytes of its fixed length. */
+  private String encodeCoordinate(BigInteger coordinate) {
+    byte[] bytes = coordinate.toByteArray();
+    byte[] unsigned = new byte[COORDINATE_BYTES];
+    int length = Math.min(bytes.length, COORDINATE_BYTES);
+    System.arraycopy(bytes, bytes.length - length, unsigned, COORDINATE_BYTES - length, length);
+    return COORDINATE_ENCODER.encodeToString(unsigned);
+  }
+}
@@ -0,0 +1,298 @@
+package com.example.login.controllers;
+
+import com.example.login.models.ERole;
+import com.example.login.payload.request.LoginRequest;
+import com.example.login.payload.request.SignupRequest;
+import com.example.login.payload.request.TokenVerificationRequest;
+import com.example.login.payload.response.JwtResponse;
+import com.example.login.payload.response.MessageResponse;
+import com.example.login.repository.ReactiveUserRepository;
+import com.example.login.security.jwt.JwtClaims;
+import com.example.login.security.jwt.JwtUtils;
+import com.example.login.security.jwt.ReactiveUserDetailsVerificationUtils;
+import com.example.login.security.services.RoleRegistry;
+import com.example.login.security.services.TokenDetailsImpl;
+import com.example.login.security.services.TokenDetailsServiceImpl;
+import com.example.login.security.services.UserDetailsImpl;
+import jakarta.annotation.PostConstruct;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.ldap.userdetails.LdapUserDetailsImpl;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Handles the signup and login requests of the reactive profile, the counterpart of {@link
+ * AuthController} routed by {@link ReactiveWebConfig}. The event loop never blocks: the password
+ * hashing runs on the password hashing executor, the directory and the writes of the persistent
+ * tokens and of the revocations on the bounded elastic scheduler.
+ *
+ * @author sy
+ */
+@Component
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+@Slf4j
+public class ReactiveAuthHandler {
+  @Autowired private ReactiveAuthenticationManager authenticationManager;
+
+  @Autowired private ReactiveUserRepository userRepository;
+
+  @Autowired private RoleRegistry roleRegistry;
+
+  @Autowired private PasswordEncoder encoder;
+
+  @Autowired private TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired private JwtUtils jwtUtils;
+
+  @Autowired private ReactiveUserDetailsVerificationUtils userDetailsVerificationUtils;
+
+  @Autowired private Validator validator;
+
+  @Autowired
+  @Qualifier("passwordHashingExecutor")
+  private Executor passwordHashingExecutor;
+
+  private Scheduler passwordHashingScheduler;
+
+  @PostConstruct
+  void initPasswordHashingScheduler() {
+    passwordHashingScheduler = Schedulers.fromExecutor(passwordHashingExecutor);
+  }
+
+  /**
+   * Performs the sign in request.
+   *
+   * @param request the request carrying the {@link LoginRequest} payload
+   * @return the result
+   */
+  public Mono<ServerResponse> signin(ServerRequest request) {
+    return body(request, LoginRequest.class)
+        .flatMap(
+            loginRequest ->
+                authenticationManager.authenticate(
+                    new UsernamePasswordAuthenticationToken(
+                        loginRequest.getUsername(), loginRequest.getPassword())))
+        .flatMap(this::signedIn)
+        .onErrorResume(this::handleError);
+  }
+
+  private Mono<ServerResponse> signedIn(Authentication authentication) {
+    String jwt = jwtUtils.generateJwtToken(authentication);
+
+    UserDetails userDetails = (UserDetails) authentication.getPrincipal();
+    List<String> roles =
+        userDetails.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .collect(Collectors.toList());
+
+    if (userDetails instanceof LdapUserDetailsImpl) {
+      // Persisted off the sign in path, visible to the verification right away
+      return Mono.fromCallable(() -> tokenDetailsService.onLoginSuccess(authentication, jwt))
+          .subscribeOn(Schedulers.boundedElastic())
+          .flatMap(
+              token ->
+                  ok(new JwtResponse(jwt, token.getId(), userDetails.getUsername(), roles)));
+    }
+    return ok(
+        new JwtResponse(
+            jwt, ((UserDetailsImpl) userDetails).getId(), userDetails.getUsername(), roles));
+  }
+
+  /**
+   * Performs the sign up request. The user and its roles are inserted in one statement, a
+   * username taken meanwhile inserts nothing.
+   *
+   * @param request the request carrying the {@link SignupRequest} payload
+   * @return the result
+   */
+  public Mono<ServerResponse> signup(ServerRequest request) {
+    return body(request, SignupRequest.class)
+        .flatMap(
+            signUpRequest ->
+                userRepository
+                    .existsByUsername(signUpRequest.getUsername())
+                    .flatMap(taken -> taken ? usernameTaken() : register(signUpRequest)))
+        .onErrorResume(this::handleError);
+  }
+
+  private Mono<ServerResponse> register(SignupRequest signUpRequest) {
+    return Mono.fromCallable(() -> encoder.encode(signUpRequest.getPassword()))
+        .subscribeOn(passwordHashingScheduler)
+        .flatMap(
+            password ->
+                userRepository.insert(
+                    signUpRequest.getUsername(), password, roleNames(signUpRequest.getRole())))
+        .flatMap(
+            inserted ->
+                inserted
+                    ? ok(new MessageResponse("User registered successfully!"))
+                    : usernameTaken());
+  }
+
+  private Collection<String> roleNames(Set<String> strRoles) {
+    if (strRoles == null) {
+      return Collections.singleton(roleRegistry.getRole(ERole.ROLE_USER).getName().name());
+    }
+    return strRoles.stream()
+        .map(role -> roleRegistry.getRequestedRole(role).getName().name())
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Performs the sign out request, revoking the jwt of the request until it expires.
+   *
+   * @param request the request carrying the jwt
+   * @return the result
+   */
+  public Mono<ServerResponse> signout(ServerRequest request) {
+    String jwt = jwtUtils.parseJwt(request.headers().firstHeader(HttpHeaders.AUTHORIZATION));
+
+    Mono<Void> logout =
+        ReactiveSecurityContextHolder.getContext()
+            .flatMap(context -> Mono.justOrEmpty(context.getAuthentication()))
+            .flatMap(authentication -> blocking(() -> tokenDetailsService.logout(authentication)));
+    // No refresh token to revoke, see ReactiveSecurityConfig
+    Mono<Void> revoke = jwt != null ? blocking(() -> jwtUtils.revokeJwtToken(jwt)) : Mono.empty();
+
+    return logout.then(revoke).then(ok(new MessageResponse("Logout successfully!")));
+  }
+
+  /**
+   * Performs the jwt verification.
+   *
+   * @param request the request carrying the jwt
+   * @return the result
+   */
+  public Mono<ServerResponse> verify(ServerRequest request) {
+    return body(request, TokenVerificationRequest.class)
+        .flatMap(tokenVerificationRequest -> verify(tokenVerificationRequest.getToken()))
+        .onErrorResume(this::handleError);
+  }
+
+  private Mono<ServerResponse> verify(String jwt) {
+    Optional<JwtClaims> claims = jwtUtils.parseJwtToken(jwt);
+    if (claims.isEmpty()) {
+      return badRequest("Error: Invalid token!");
+    }
+
+    // Verify against the store the username belongs to, or the claims in the stateless mode
+    return userDetailsVerificationUtils
+        .verify(claims.get(), jwt)
+        .flatMap(authentication -> ok(toJwtResponse(jwt, claims.get(), authentication)))
+        .onErrorResume(
+            e -> {
+              log.error(e.getMessage());
+              return badRequest("Error: Invalid token!");
+            });
+  }
+
+  private static JwtResponse toJwtResponse(
+      String jwt, JwtClaims claims, UsernamePasswordAuthenticationToken authenticationToken) {
+    Object principal = authenticationToken.getPrincipal();
+    Long id =
+        principal instanceof UserDetailsImpl
+            ? ((UserDetailsImpl) principal).getId()
+            : ((TokenDetailsImpl) principal).getId();
+
+    List<String> roles =
+        authenticationToken.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .collect(Collectors.toList());
+
+    return new JwtResponse(jwt, id, claims.getUsername(), roles);
+  }
+
+  /**
+   * Read the payload of the request and validate it, as {@code @Valid @RequestBody} does.
+   *
+   * @param request the request
+   * @param type the type of the payload
+   * @return the payload, or a ServerWebInputException if missing or not valid
+   */
+  private <T> Mono<T> body(ServerRequest request, Class<T> type) {
+    return request
+        .bodyToMono(type)
+        .switchIfEmpty(
+            Mono.error(() -> new ServerWebInputException("Error: Request body is missing!")))
+        .doOnNext(
+            payload -> {
+              Set<ConstraintViolation<T>> violations = validator.validate(payload);
+              if (!violations.isEmpty()) {
+                ConstraintViolation<T> violation = violations.iterator().next();
+                throw new ServerWebInputException(
+                    "Error: " + violation.getPropertyPath() + " " + violation.getMessage());
+              }
+            });
+  }
+
+  /**
+   * Map the failures as the exception handlers of {@link AuthController}: a saturated executor
+   * to 503, an authentication failure to 401 and an invalid payload to 400.
+   *
+   * @param e the failure
+   * @return the result
+   */
+  private Mono<ServerResponse> handleError(Throwable e) {
+    if (e instanceof RejectedExecutionException) {
+      log.warn("Executor saturated: {}", e.getMessage());
+      return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .header(HttpHeaders.RETRY_AFTER, "1")
+          .bodyValue(new MessageResponse("Error: Server busy, please retry later!"));
+    }
+    if (e instanceof AuthenticationException) {
+      log.error("Unauthorized error: {}", e.getMessage());
+      return ServerResponse.status(HttpStatus.UNAUTHORIZED)
+          .bodyValue(new MessageResponse("Error: Unauthorized"));
+    }
+    if (e instanceof ServerWebInputException) {
+      return badRequest(((ServerWebInputException) e).getReason());
+    }
+    return Mono.error(e);
+  }
+
+  private Mono<ServerResponse> usernameTaken() {
+    return badRequest("Error: Username is already taken!");
+  }
+
+  private static Mono<ServerResponse> ok(Object body) {
+    return ServerResponse.ok().bodyValue(body);
+  }
+
+  private static Mono<ServerResponse> badRequest(String message) {
+    return ServerResponse.badRequest().bodyValue(new MessageResponse(message));
+  }
+
+  /** Run the given blocking task on the bounded elastic scheduler. */
+  private static Mono<Void> blocking(Runnable task) {
+    return Mono.fromRunnable(task).subscribeOn(Schedulers.boundedElastic()).then();
+  }
+}
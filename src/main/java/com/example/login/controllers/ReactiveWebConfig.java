@@ -0,0 +1,55 @@
+package com.example.login.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+/**
+ * Provides the web server and the routes of the reactive profile. The JWKS, refresh and test
+ * endpoints are only served by the servlet controllers.
+ *
+ * @author sy
+ */
+@Configuration
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveWebConfig {
+
+  @Autowired private ReactiveAuthHandler authHandler;
+
+  /**
+   * Route the auth requests to the {@link ReactiveAuthHandler}, on the paths of {@link
+   * AuthController}.
+   *
+   * @return the {@link RouterFunction}
+   */
+  @Bean
+  public RouterFunction<ServerResponse> authRoutes() {
+    return RouterFunctions.route()
+        .path(
+            "/api/auth",
+            builder ->
+                builder
+                    .POST("/signin", authHandler::signin)
+                    .POST("/signup", authHandler::signup)
+                    .POST("/signout", authHandler::signout)
+                    .POST("/verify", authHandler::verify))
+        .build();
+  }
+
+  /**
+   * Serve on Netty, a few event loop threads for all the connections. Tomcat is also on the
+   * classpath for the servlet profile and would otherwise be chosen.
+   *
+   * @return the {@link NettyReactiveWebServerFactory}
+   */
+  @Bean
+  public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+    return new NettyReactiveWebServerFactory();
+  }
+}
@@ -0,0 +1,227 @@
+package com.example.login.metrics;
+
+import com.example.login.security.services.PrincipalSource;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.stereotype.Component;
+
+/**
+ * Provides the timers and counters of the authentication operations, published on the actuator
+ * prometheus endpoint.
+ *
+ * @author sy
+ */
+@Component
+public class AuthMetrics {
+
+  private static final String[] SIGNIN_PROVIDERS = {"dao", "ad"};
+
+  private static final String[] SIGNIN_OUTCOMES = {"success", "failure", "skipped"};
+
+  private static final String[] TOKEN_REPOSITORY_OPERATIONS = {
+    "find", "save", "saveBatch", "delete", "allocateIds"
+  };
+
+  private static final String[] JWT_VALIDATION_FAILURE_REASONS = {
+    "signature",
+    "malformed",
+    "expired",
+    "unsupported",
+    "empty",
+    "revoked",
+    "length",
+    "header",
+    "alphabet",
+    "segments"
+  };
+
+  private final MeterRegistry registry;
+
+  private final Timer jwtParseTimer;
+
+  private final Timer ldapSearchTimer;
+
+  private final Timer tokenSweepTimer;
+
+  private final Counter tokensPurged;
+
+  private final Counter tokenWriteFailures;
+
+  private final Map<PrincipalSource, Timer> verifyTimers = new EnumMap<>(PrincipalSource.class);
+
+  /** By provider then outcome. A tag value not registered up front is registered on first use. */
+  private final Map<String, Map<String, Timer>> signinTimers = new ConcurrentHashMap<>();
+
+  private final Map<String, Timer> tokenRepositoryTimers = new ConcurrentHashMap<>();
+
+  private final Map<String, Counter> jwtValidationFailures = new ConcurrentHashMap<>();
+
+  public AuthMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    this.jwtParseTimer =
+        Timer.builder("auth.jwt.parse")
+            .description("Signature verification and parsing of the jwt")
+            .register(registry);
+    this.ldapSearchTimer =
+        Timer.builder("auth.ldap.search")
+            .description("Directory search of a user")
+            .register(registry);
+    this.tokenSweepTimer =
+        Timer.builder("auth.token.sweep")
+            .description("Sweep of the expired persistent tokens")
+            .register(registry);
+    this.tokensPurged =
+        Counter.builder("auth.token.sweep.purged")
+            .description("Expired persistent tokens deleted by the sweeps")
+            .register(registry);
+    this.tokenWriteFailures =
+        Counter.builder("auth.token.write.failures")
+            .description("Persistent tokens saved behind that failed to be written, then retried")
+            .register(registry);
+    for (PrincipalSource source : PrincipalSource.values()) {
+      verifyTimers.put(
+          source,
+          Timer.builder("auth.verify")
+              .description("Verification of the principal of a jwt against its store")
+              .tag("source", source.name().toLowerCase())
+              .register(registry));
+    }
+    for (String provider : SIGNIN_PROVIDERS) {
+      for (String outcome : SIGNIN_OUTCOMES) {
+        registerSigninTimer(provider, outcome);
+      }
+    }
+    for (String operation : TOKEN_REPOSITORY_OPERATIONS) {
+      registerTokenRepositoryTimer(operation);
+    }
+    for (String reason : JWT_VALIDATION_FAILURE_REASONS) {
+      registerJwtValidationFailures(reason);
+    }
+  }
+
+  /**
+   * Timer of the sign in through the {@link
+   * org.springframework.security.authentication.AuthenticationProvider} of the given name.
+   *
+   * @param provider the provider name (dao, ad)
+   * @param outcome the outcome (success, failure, skipped)
+   * @return the {@link Timer}
+   */
+  public Timer signinTimer(String provider, String outcome) {
+    Map<String, Timer> timers = signinTimers.get(provider);
+    Timer timer = timers != null ? timers.get(outcome) : null;
+    return timer != null ? timer : registerSigninTimer(provider, outcome);
+  }
+
+  private Timer registerSigninTimer(String provider, String outcome) {
+    return signinTimers
+        .computeIfAbsent(provider, key -> new ConcurrentHashMap<>())
+        .computeIfAbsent(
+            outcome,
+            key ->
+                Timer.builder("auth.signin")
+                    .description("Authentication of the sign in credentials")
+                    .tag("provider", provider)
+                    .tag("outcome", outcome)
+                    .register(registry));
+  }
+
+  public Timer jwtParseTimer() {
+    return jwtParseTimer;
+  }
+
+  public Timer ldapSearchTimer() {
+    return ldapSearchTimer;
+  }
+
+  public Timer verifyTimer(PrincipalSource source) {
+    return verifyTimers.get(source);
+  }
+
+  /**
+   * Timer of the given {@link com.example.login.repository.CustomPersistentTokenRepository}
+   * operation.
+   *
+   * @param operation the operation (find, save, saveBatch, delete, allocateIds)
+   * @return the {@link Timer}
+   */
+  public Timer tokenRepositoryTimer(String operation) {
+    Timer timer = tokenRepositoryTimers.get(operation);
+    return timer != null ? timer : registerTokenRepositoryTimer(operation);
+  }
+
+  private Timer registerTokenRepositoryTimer(String operation) {
+    return tokenRepositoryTimers.computeIfAbsent(
+        operation,
+        key ->
+            Timer.builder("auth.token.repository")
+                .description("Persistent token repository calls")
+                .tag("operation", operation)
+                .register(registry));
+  }
+
+  /**
+   * Count a jwt rejected by the validation.
+   *
+   * @param reason the reason (signature, malformed, expired, unsupported, empty, revoked,
+   *     or length, header, alphabet, segments when rejected before the parsing)
+   */
+  public void jwtValidationFailure(String reason) {
+    Counter counter = jwtValidationFailures.get(reason);
+    (counter != null ? counter : registerJwtValidationFailures(reason)).increment();
+  }
+
+  private Counter registerJwtValidationFailures(String reason) {
+    return jwtValidationFailures.computeIfAbsent(
+        reason,
+        key ->
+            Counter.builder("auth.jwt.validation.failures")
+                .description("Jwt rejected by the validation")
+                .tag("reason", reason)
+                .register(registry));
+  }
+
+  /** Count a persistent token saved behind that failed to be written. */
+  public void tokenWriteFailure() {
+    tokenWriteFailures.increment();
+  }
+
+  public Timer tokenSweepTimer() {
+    return tokenSweepTimer;
+  }
+
+  /**
+   * Count the expired persistent tokens deleted by a sweep.
+   *
+   * @param purged the number of tokens deleted
+   */
+  public void tokensPurged(int purged) {
+    tokensPurged.increment(purged);
+  }
+
+  /**
+   * Publish the number of revoked jwt not expired yet.
+   *
+   * @param revoked the revocations by jti
+   */
+  public void monitorRevocations(Map<String, ?> revoked) {
+    registry.gaugeMapSize("auth.jwt.revoked", Tags.empty(), revoked);
+  }
+
+  /**
+   * Publish the size, hits, misses and evictions of the given cache, which must record its stats.
+   *
+   * @param cache the cache to monitor
+   * @param name the cache name
+   */
+  public void monitor(Cache<?, ?> cache, String name) {
+    CaffeineCacheMetrics.monitor(registry, cache, name);
+  }
+}
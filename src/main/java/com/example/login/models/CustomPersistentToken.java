@@ -1,21 +1,21 @@
 package com.example.login.models;
 
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.JoinTable;
+import jakarta.persistence.ManyToMany;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import jakarta.persistence.UniqueConstraint;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
-import javax.persistence.Column;
-import javax.persistence.Entity;
-import javax.persistence.FetchType;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
-import javax.persistence.Id;
-import javax.persistence.JoinColumn;
-import javax.persistence.JoinTable;
-import javax.persistence.ManyToMany;
-import javax.persistence.Table;
-import javax.persistence.Temporal;
-import javax.persistence.TemporalType;
-import javax.persistence.UniqueConstraint;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -47,8 +47,6 @@ public class CustomPersistentToken {
 
   private String username;
 
-  private String token;
-
   private String series;
 
   @Temporal(TemporalType.TIMESTAMP)
@@ -62,9 +60,8 @@ public class CustomPersistentToken {
   @Builder.Default
   private Set<Role> roles = new HashSet<>();
 
-  public CustomPersistentToken(String username, String token, String series, Date last_used, Set<Role> roles) {
+  public CustomPersistentToken(String username, String series, Date last_used, Set<Role> roles) {
     this.username = username;
-    this.token = token;
     this.series = series;
     this.last_used = last_used;
     this.roles = roles;
@@ -0,0 +1,73 @@
+package com.example.login.models;
+
+import com.example.login.security.services.PrincipalSource;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import java.util.Date;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * RefreshToken model, a single use token exchanged for a new access token and its successor.
+ *
+ * @author sy
+ */
+@Entity
+@Table(name = "refresh_tokens")
+@Builder
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class RefreshToken {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  /** Unpadded Base64url SHA-256 digest of the token, the token itself is not stored. */
+  @Column(name = "token_hash", length = 43, nullable = false)
+  private String tokenHash;
+
+  /** Id shared by the tokens rotated from the same sign in. */
+  @Column(name = "family_id", length = 36, nullable = false)
+  private String familyId;
+
+  @Column(nullable = false)
+  private String username;
+
+  @Enumerated(EnumType.STRING)
+  @Column(length = 10, nullable = false)
+  private PrincipalSource source;
+
+  /** Id (jti) of the access token issued together with this token. */
+  @Column(name = "access_jti", length = 36)
+  private String accessJti;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "access_expires_at")
+  private Date accessExpiresAt;
+
+  /** Expiration of the family, set on sign in. */
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "expires_at", nullable = false)
+  private Date expiresAt;
+
+  /** Rotation of this token, null while it is the current token of its family. */
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "used_at")
+  private Date usedAt;
+}
@@ -0,0 +1,44 @@
+package com.example.login.models;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import java.util.Date;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * RevokedToken model, the id (jti) of a jwt signed out before its expiration.
+ *
+ * @author sy
+ */
+@Entity
+@Table(name = "revoked_tokens")
+@Builder
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class RevokedToken {
+
+  @Id
+  @Column(length = 36)
+  private String jti;
+
+  /** Expiration of the jwt, the revocation is dropped past it. */
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "expires_at", nullable = false)
+  private Date expiresAt;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "revoked_at", nullable = false)
+  private Date revokedAt;
+}
@@ -1,19 +1,22 @@
 package com.example.login.models;
 
+import com.example.login.security.services.UserEntityListener;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.JoinTable;
+import jakarta.persistence.ManyToMany;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.persistence.Version;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
 import java.util.HashSet;
 import java.util.Set;
-import javax.persistence.Entity;
-import javax.persistence.FetchType;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
-import javax.persistence.Id;
-import javax.persistence.JoinColumn;
-import javax.persistence.JoinTable;
-import javax.persistence.ManyToMany;
-import javax.persistence.Table;
-import javax.persistence.UniqueConstraint;
-import javax.validation.constraints.NotEmpty;
-import javax.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -27,6 +30,7 @@ import lombok.Setter;
  * @author sy
  */
 @Entity
+@EntityListeners(UserEntityListener.class)
 @Table(
     name = "users",
     uniqueConstraints = {@UniqueConstraint(columnNames = "username")})
@@ -57,8 +61,22 @@ public class User {
   @Builder.Default
   private Set<Role> roles = new HashSet<>();
 
+  /**
+   * Incremented on every update, the roles included: without it a change of the roles only would
+   * not update the row and the {@link UserEntityListener} would not be called.
+   */
+  @Version private Long version;
+
+  /**
+   * Incremented when the password changes, but not when its hash is upgraded on sign in: the
+   * stateless jwt issued with another value are out of date.
+   */
+  private long credentialsVersion;
+
   public User(String username, String password) {
     this.username = username;
     this.password = password;
+    // @Builder.Default only initializes the field in the builder and the no-args constructor
+    this.roles = new HashSet<>();
   }
 }
@@ -0,0 +1,28 @@
+package com.example.login.payload.request;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * BatchTokenVerificationRequest payload model.
+ *
+ * @author sy
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class BatchTokenVerificationRequest {
+  @NotEmpty
+  @Size(max = 100)
+  private List<@NotEmpty String> tokens;
+}
@@ -0,0 +1,24 @@
+package com.example.login.payload.request;
+
+import jakarta.validation.constraints.NotEmpty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * RefreshTokenRequest payload model.
+ *
+ * @author sy
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class RefreshTokenRequest {
+  @NotEmpty private String refreshToken;
+}
@@ -0,0 +1,24 @@
+package com.example.login.payload.response;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * BatchTokenVerificationResponse payload model, one result per requested jwt in request order.
+ *
+ * @author sy
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class BatchTokenVerificationResponse {
+  private List<TokenVerificationResult> results;
+}
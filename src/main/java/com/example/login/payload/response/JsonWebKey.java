@@ -0,0 +1,29 @@
+package com.example.login.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * JsonWebKey payload model, the public part of an ES256 signing key (RFC 7517).
+ *
+ * @author sy
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class JsonWebKey {
+  @Builder.Default private String kty = "EC";
+  @Builder.Default private String crv = "P-256";
+  @Builder.Default private String use = "sig";
+  @Builder.Default private String alg = "ES256";
+  private String kid;
+  private String x;
+  private String y;
+}
@@ -0,0 +1,24 @@
+package com.example.login.payload.response;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * JsonWebKeySetResponse payload model, the keys the jwt can be verified with.
+ *
+ * @author sy
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class JsonWebKeySetResponse {
+  private List<JsonWebKey> keys;
+}
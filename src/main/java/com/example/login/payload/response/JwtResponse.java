@@ -1,5 +1,6 @@
 package com.example.login.payload.response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -25,6 +26,8 @@ public class JwtResponse {
   private Long id;
   private String username;
   private List<String> roles;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String refreshToken;
 
   public JwtResponse(String accessToken, Long id, String username, List<String> roles) {
     this.token = accessToken;
@@ -33,4 +36,10 @@ public class JwtResponse {
     this.roles = roles;
     this.type = "Bearer";
   }
+
+  public JwtResponse(
+      String accessToken, String refreshToken, Long id, String username, List<String> roles) {
+    this(accessToken, id, username, roles);
+    this.refreshToken = refreshToken;
+  }
 }
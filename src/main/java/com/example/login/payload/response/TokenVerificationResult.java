@@ -0,0 +1,34 @@
+package com.example.login.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * TokenVerificationResult payload model, the result of one jwt of a batch verification.
+ *
+ * @author sy
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class TokenVerificationResult {
+  private String token;
+  private boolean valid;
+  private JwtResponse user;
+  private String message;
+
+  public static TokenVerificationResult valid(JwtResponse user) {
+    return new TokenVerificationResult(user.getToken(), true, user, null);
+  }
+
+  public static TokenVerificationResult invalid(String token) {
+    return new TokenVerificationResult(token, false, null, "Error: Invalid token!");
+  }
+}
@@ -1,8 +1,17 @@
 package com.example.login.repository;
 
 import com.example.login.models.CustomPersistentToken;
+import com.example.login.models.ERole;
+import com.example.login.models.Role;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -17,11 +26,84 @@ import org.springframework.stereotype.Repository;
 public interface CustomPersistentTokenRepository
     extends JpaRepository<CustomPersistentToken, Long> {
 
-  CustomPersistentToken findBySeries(String series);
-
   Long deleteBySeries(String series);
 
   Optional<CustomPersistentToken> findByUsername(String username);
 
+  @Query(
+      "select t.id as id, t.username as username, t.series as series,"
+          + " t.last_used as lastUsed, r.name as roleName"
+          + " from CustomPersistentToken t left join t.roles r where t.username = :username")
+  List<TokenCredentials> findCredentialsByUsername(@Param("username") String username);
+
+  @Query(
+      "select t.id as id, t.username as username, t.series as series,"
+          + " t.last_used as lastUsed, r.name as roleName"
+          + " from CustomPersistentToken t left join t.roles r where t.username in :usernames")
+  List<TokenCredentials> findCredentialsByUsernameIn(
+      @Param("usernames") Collection<String> usernames);
+
   Long deleteByUsername(String username);
+
+  /**
+   * Insert the token of the given username, or rotate its series, last used date and roles when it
+   * exists, in a single statement.
+   *
+   * @param username Value to upsert
+   * @param series the series of the jwt
+   * @param lastUsed the {@link Date} the jwt was issued
+   * @param roles the names of the roles, not empty
+   * @return the id of the token
+   */
+  @Query(
+      value =
+          "with upserted as ("
+              + " insert into persistent_tokens (username, series, last_used)"
+              + " values (:username, :series, :lastUsed)"
+              + " on conflict (username) do update"
+              + " set series = excluded.series, last_used = excluded.last_used"
+              + " returning persistent_tokens_id),"
+              + " removed as ("
+              + " delete from token_roles tr using upserted u"
+              + " where tr.persistent_tokens_id = u.persistent_tokens_id"
+              + " and tr.role_id not in (select id from roles where name in (:roles))),"
+              + " added as ("
+              + " insert into token_roles (persistent_tokens_id, role_id)"
+              + " select u.persistent_tokens_id, r.id from upserted u, roles r"
+              + " where r.name in (:roles)"
+              + " on conflict do nothing)"
+              + " select persistent_tokens_id from upserted",
+      nativeQuery = true)
+  Long upsert(
+      @Param("username") String username,
+      @Param("series") String series,
+      @Param("lastUsed") Date lastUsed,
+      @Param("roles") Collection<String> roles);
+
+  /**
+   * Insert the given token, or rotate the token of its username, in a single statement. A token
+   * without roles is given {@link ERole#ROLE_USER}.
+   *
+   * @param token Object to upsert
+   * @return the id of the token
+   */
+  default Long upsert(CustomPersistentToken token) {
+    return upsert(token.getUsername(), token.getSeries(), token.getLast_used(), roleNames(token));
+  }
+
+  /**
+   * Retrieve the names of the roles of the given token, {@link ERole#ROLE_USER} for a token without
+   * roles.
+   *
+   * @param token Object to retrieve from
+   * @return the names of the roles, not empty
+   */
+  static Collection<String> roleNames(CustomPersistentToken token) {
+    return token.getRoles().isEmpty()
+        ? Collections.singleton(ERole.ROLE_USER.name())
+        : token.getRoles().stream()
+            .map(Role::getName)
+            .map(ERole::name)
+            .collect(Collectors.toSet());
+  }
 }
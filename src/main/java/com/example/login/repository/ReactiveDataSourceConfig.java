@@ -0,0 +1,37 @@
+package com.example.login.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import javax.sql.DataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Provides the JDBC {@link DataSource} of the reactive profile. Spring Boot does not create one
+ * when there is an R2DBC connection factory, but the migrations, the JPA repositories and the
+ * components off the request path still need it.
+ *
+ * @author sy
+ */
+@Configuration
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class ReactiveDataSourceConfig {
+
+  /**
+   * The {@link HikariDataSource} configured from the spring.datasource properties, as in the
+   * servlet profile.
+   *
+   * @param properties the spring.datasource properties
+   * @return the {@link HikariDataSource}
+   */
+  @Bean
+  @ConfigurationProperties("spring.datasource.hikari")
+  public HikariDataSource dataSource(DataSourceProperties properties) {
+    return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+  }
+}
@@ -0,0 +1,75 @@
+package com.example.login.repository;
+
+import com.example.login.models.CustomPersistentToken;
+import com.example.login.models.ERole;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Date;
+import lombok.Value;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+/**
+ * Non-blocking reads of the {@link CustomPersistentToken} table for the reactive profile, through
+ * R2DBC. It reads the same {@link TokenCredentials} as {@link CustomPersistentTokenRepository}. The
+ * tokens are still written by the {@code PersistentTokenStore}.
+ *
+ * @author sy
+ */
+@Repository
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactivePersistentTokenRepository {
+
+  private static final String FIND_CREDENTIALS =
+      "select t.persistent_tokens_id as id, t.username, t.series, t.last_used,"
+          + " r.name as role_name from persistent_tokens t"
+          + " left join token_roles tr on tr.persistent_tokens_id = t.persistent_tokens_id"
+          + " left join roles r on r.id = tr.role_id"
+          + " where t.username = :username";
+
+  @Autowired private DatabaseClient databaseClient;
+
+  /**
+   * Retrieve the {@link TokenCredentials} of the {@link CustomPersistentToken} from the data store
+   * by username, in a single query.
+   *
+   * @param username Value to search
+   * @return the {@link TokenCredentials}, one per role (or empty)
+   */
+  public Flux<TokenCredentials> findCredentialsByUsername(String username) {
+    return databaseClient
+        .sql(FIND_CREDENTIALS)
+        .bind("username", username)
+        .map(
+            row -> {
+              LocalDateTime lastUsed = row.get("last_used", LocalDateTime.class);
+              String roleName = row.get("role_name", String.class);
+              return (TokenCredentials)
+                  new Credentials(
+                      row.get("id", Long.class),
+                      row.get("username", String.class),
+                      row.get("series", String.class),
+                      lastUsed != null ? Timestamp.valueOf(lastUsed) : null,
+                      roleName != null ? ERole.valueOf(roleName) : null);
+            })
+        .all();
+  }
+
+  @Value
+  private static class Credentials implements TokenCredentials {
+
+    Long id;
+
+    String username;
+
+    String series;
+
+    Date lastUsed;
+
+    ERole roleName;
+  }
+}
@@ -0,0 +1,155 @@
+package com.example.login.repository;
+
+import com.example.login.models.ERole;
+import com.example.login.models.User;
+import com.example.login.security.services.PrincipalSourceResolver;
+import com.example.login.security.services.UserDetailsServiceImpl;
+import java.util.Collection;
+import lombok.Value;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking access to the {@link User} table for the reactive profile, through R2DBC. It reads
+ * the same {@link UserCredentials} as {@link UserRepository}. Writes go around the JPA entity
+ * listener, so they evict the cached principal and source of the user themselves.
+ *
+ * @author sy
+ */
+@Repository
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveUserRepository {
+
+  private static final String FIND_CREDENTIALS =
+      "select u.id, u.username, u.password, u.credentials_version, r.name as role_name"
+          + " from users u"
+          + " left join user_roles ur on ur.user_id = u.id"
+          + " left join roles r on r.id = ur.role_id"
+          + " where u.username = :username";
+
+  private static final String EXISTS =
+      "select exists (select 1 from users where username = :username)";
+
+  /** Insert of a user and of its roles in one statement, nothing when the username is taken. */
+  private static final String INSERT =
+      "with inserted as ("
+          + " insert into users (username, password) values (:username, :password)"
+          + " on conflict (username) do nothing"
+          + " returning id)"
+          + " insert into user_roles (user_id, role_id)"
+          + " select i.id, r.id from inserted i, roles r where r.name = any (:roles)";
+
+  /**
+   * Increments the version the same way Hibernate does, so a stale entity cannot overwrite it. The
+   * credentials version is left as is, the hash of the same password being upgraded.
+   */
+  private static final String UPDATE_PASSWORD =
+      "update users set password = :password, version = version + 1 where username = :username";
+
+  @Autowired private DatabaseClient databaseClient;
+
+  @Autowired private ObjectProvider<UserDetailsServiceImpl> userDetailsService;
+
+  @Autowired private ObjectProvider<PrincipalSourceResolver> principalSourceResolver;
+
+  /**
+   * Retrieve the {@link UserCredentials} of the {@link User} from the data store by username, in a
+   * single query.
+   *
+   * @param username Value to search
+   * @return the {@link UserCredentials}, one per role (or empty)
+   */
+  public Flux<UserCredentials> findCredentialsByUsername(String username) {
+    return databaseClient
+        .sql(FIND_CREDENTIALS)
+        .bind("username", username)
+        .map(
+            row -> {
+              String roleName = row.get("role_name", String.class);
+              return (UserCredentials)
+                  new Credentials(
+                      row.get("id", Long.class),
+                      row.get("username", String.class),
+                      row.get("password", String.class),
+                      row.get("credentials_version", Long.class),
+                      roleName != null ? ERole.valueOf(roleName) : null);
+            })
+        .all();
+  }
+
+  /**
+   * Verify {@link User} exists from the data store by username.
+   *
+   * @param username Value to search
+   * @return true/false if {@link User} exists in the data store
+   */
+  public Mono<Boolean> existsByUsername(String username) {
+    return databaseClient
+        .sql(EXISTS)
+        .bind("username", username)
+        .map(row -> row.get(0, Boolean.class))
+        .one();
+  }
+
+  /**
+   * Insert a {@link User} with the given roles, unless the username is taken.
+   *
+   * @param username the username
+   * @param password the encoded password
+   * @param roles the names of the roles
+   * @return true if inserted, false if the username is taken
+   */
+  public Mono<Boolean> insert(String username, String password, Collection<String> roles) {
+    return databaseClient
+        .sql(INSERT)
+        .bind("username", username)
+        .bind("password", password)
+        .bind("roles", roles.toArray(new String[0]))
+        .fetch()
+        .rowsUpdated()
+        .map(rows -> rows > 0)
+        .doOnSuccess(inserted -> evict(username));
+  }
+
+  /**
+   * Replace the encoded password of the {@link User}.
+   *
+   * @param username the username
+   * @param password the new encoded password
+   * @return the number of users updated
+   */
+  public Mono<Long> updatePassword(String username, String password) {
+    return databaseClient
+        .sql(UPDATE_PASSWORD)
+        .bind("username", username)
+        .bind("password", password)
+        .fetch()
+        .rowsUpdated()
+        .doOnSuccess(rows -> evict(username));
+  }
+
+  private void evict(String username) {
+    userDetailsService.ifAvailable(service -> service.evict(username));
+    principalSourceResolver.ifAvailable(resolver -> resolver.evict(username));
+  }
+
+  @Value
+  private static class Credentials implements UserCredentials {
+
+    Long id;
+
+    String username;
+
+    String password;
+
+    Long credentialsVersion;
+
+    ERole roleName;
+  }
+}
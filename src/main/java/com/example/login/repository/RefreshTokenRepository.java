@@ -0,0 +1,82 @@
+package com.example.login.repository;
+
+import com.example.login.models.RefreshToken;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Repository class for <code>RefreshToken</code> objects. All method names are compliant with
+ * Spring Data naming conventions so this interface can easily be extended for Spring Data. See:
+ * https://docs.spring.io/spring-data/jpa/docs/current/reference/html/#repositories.query-methods.query-creation
+ *
+ * @author sy
+ */
+@Repository
+public interface RefreshTokenRepository extends JpaRepository<RefreshToken, Long> {
+
+  /**
+   * Retrieve {@link RefreshToken} from the data store by digest.
+   *
+   * @param tokenHash Value to search
+   * @return a Object matching the {@link RefreshToken} (or empty instance)
+   */
+  Optional<RefreshToken> findByTokenHash(String tokenHash);
+
+  /**
+   * Retrieve {@link RefreshToken} from the data store by the id of its access token.
+   *
+   * @param accessJti Value to search
+   * @return a Object matching the {@link RefreshToken} (or empty instance)
+   */
+  Optional<RefreshToken> findByAccessJti(String accessJti);
+
+  /**
+   * Retrieve the {@link RefreshToken} of the given family.
+   *
+   * @param familyId Value to search
+   * @return the {@link RefreshToken} of the family
+   */
+  List<RefreshToken> findByFamilyId(String familyId);
+
+  /**
+   * Mark the {@link RefreshToken} of the given id used, unless it already is. Concurrent
+   * rotations of the same token are serialized by the row lock, only one of them succeeds.
+   *
+   * @param id Value to update
+   * @param now the rotation date
+   * @return 1 if marked, 0 if already used
+   */
+  @Transactional
+  @Modifying
+  @Query("update RefreshToken t set t.usedAt = :now where t.id = :id and t.usedAt is null")
+  int markUsed(@Param("id") Long id, @Param("now") Date now);
+
+  /**
+   * Delete the {@link RefreshToken} of the given family.
+   *
+   * @param familyId Value to delete
+   * @return the number of deleted rows
+   */
+  @Transactional
+  @Modifying
+  @Query("delete from RefreshToken t where t.familyId = :familyId")
+  int deleteFamily(@Param("familyId") String familyId);
+
+  /**
+   * Delete the {@link RefreshToken} expired before the given date.
+   *
+   * @param now Value to compare the expiration to
+   * @return the number of deleted rows
+   */
+  @Transactional
+  @Modifying
+  @Query("delete from RefreshToken t where t.expiresAt < :now")
+  int deleteExpired(@Param("now") Date now);
+}
@@ -0,0 +1,49 @@
+package com.example.login.repository;
+
+import com.example.login.models.RevokedToken;
+import java.util.Date;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Repository class for <code>RevokedToken</code> objects. All method names are compliant with
+ * Spring Data naming conventions so this interface can easily be extended for Spring Data. See:
+ * https://docs.spring.io/spring-data/jpa/docs/current/reference/html/#repositories.query-methods.query-creation
+ *
+ * @author sy
+ */
+@Repository
+public interface RevokedTokenRepository extends JpaRepository<RevokedToken, String> {
+
+  /**
+   * Retrieve the {@link RevokedToken} not expired yet.
+   *
+   * @param now Value to compare the expiration to
+   * @return the {@link RevokedToken} expiring after now
+   */
+  List<RevokedToken> findByExpiresAtAfter(Date now);
+
+  /**
+   * Retrieve the {@link RevokedToken} revoked after the given date, including the expired ones.
+   *
+   * @param since Value to compare the revocation to
+   * @return the {@link RevokedToken} revoked after since
+   */
+  List<RevokedToken> findByRevokedAtAfter(Date since);
+
+  /**
+   * Delete the {@link RevokedToken} expired before the given date.
+   *
+   * @param now Value to compare the expiration to
+   * @return the number of deleted rows
+   */
+  @Transactional
+  @Modifying
+  @Query("delete from RevokedToken t where t.expiresAt < :now")
+  int deleteExpired(@Param("now") Date now);
+}
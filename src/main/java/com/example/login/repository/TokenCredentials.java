@@ -0,0 +1,29 @@
+package com.example.login.repository;
+
+import com.example.login.models.CustomPersistentToken;
+import com.example.login.models.ERole;
+import java.util.Date;
+
+/**
+ * Projection of the {@link CustomPersistentToken} columns needed to authenticate, one row per
+ * role.
+ *
+ * @author sy
+ */
+public interface TokenCredentials {
+
+  Long getId();
+
+  String getUsername();
+
+  String getSeries();
+
+  Date getLastUsed();
+
+  /**
+   * The name of one of the roles, null when the {@link CustomPersistentToken} has no role.
+   *
+   * @return the {@link ERole}
+   */
+  ERole getRoleName();
+}
@@ -0,0 +1,32 @@
+package com.example.login.repository;
+
+import com.example.login.models.ERole;
+import com.example.login.models.User;
+
+/**
+ * Projection of the {@link User} columns needed to authenticate, one row per role.
+ *
+ * @author sy
+ */
+public interface UserCredentials {
+
+  Long getId();
+
+  String getUsername();
+
+  String getPassword();
+
+  /**
+   * The version of the credentials, changed by a password change only.
+   *
+   * @return the version
+   */
+  Long getCredentialsVersion();
+
+  /**
+   * The name of one of the roles, null when the {@link User} has no role.
+   *
+   * @return the {@link ERole}
+   */
+  ERole getRoleName();
+}
@@ -1,8 +1,12 @@
 package com.example.login.repository;
 
 import com.example.login.models.User;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -22,6 +26,33 @@ public interface UserRepository extends JpaRepository<User, Long> {
    */
   Optional<User> findByUsername(String username);
 
+  /**
+   * Retrieve the {@link UserCredentials} of the {@link User} from the data store by username, in a
+   * single query and without managing the entity.
+   *
+   * @param username Value to search
+   * @return the {@link UserCredentials}, one per role (or empty list)
+   */
+  @Query(
+      "select u.id as id, u.username as username, u.password as password,"
+          + " u.credentialsVersion as credentialsVersion, r.name as roleName"
+          + " from User u left join u.roles r where u.username = :username")
+  List<UserCredentials> findCredentialsByUsername(@Param("username") String username);
+
+  /**
+   * Retrieve the {@link UserCredentials} of the {@link User}s from the data store by usernames, in
+   * a single query and without managing the entities.
+   *
+   * @param usernames Values to search
+   * @return the {@link UserCredentials}, one per user and role (or empty list)
+   */
+  @Query(
+      "select u.id as id, u.username as username, u.password as password,"
+          + " u.credentialsVersion as credentialsVersion, r.name as roleName"
+          + " from User u left join u.roles r where u.username in :usernames")
+  List<UserCredentials> findCredentialsByUsernameIn(
+      @Param("usernames") Collection<String> usernames);
+
   /**
    * Verify {@link User} exists from the data store by username.
    *
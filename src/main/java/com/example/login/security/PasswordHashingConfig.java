@@ -0,0 +1,77 @@
+package com.example.login.security;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * Provides the bounded executor the sign in and sign up password hashing runs on, and the
+ * calibration of the BCrypt work factor.
+ *
+ * @author sy
+ */
+@Configuration
+@Slf4j
+public class PasswordHashingConfig {
+
+  /** Highest BCrypt work factor the calibration may choose. */
+  private static final int MAX_STRENGTH = 16;
+
+  @Value("${examplelogin.app.password.executor.threads:0}")
+  private int threads;
+
+  @Value("${examplelogin.app.password.executor.queueCapacity:100}")
+  private int queueCapacity;
+
+  /**
+   * Executor running the password hashing. Requests beyond the queue capacity are rejected right
+   * away (see {@link ThreadPoolExecutor.AbortPolicy}) instead of piling up on the request threads.
+   *
+   * @return the {@link ThreadPoolTaskExecutor}
+   */
+  @Bean
+  public ThreadPoolTaskExecutor passwordHashingExecutor() {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+    executor.setThreadNamePrefix("password-hashing-");
+    return executor;
+  }
+
+  /**
+   * Find the highest BCrypt work factor, from the given minimum, whose hash takes no longer than
+   * the target latency on this machine.
+   *
+   * @param minStrength the lowest work factor to use
+   * @param targetMs the target hash latency
+   * @return the calibrated work factor
+   */
+  public static int calibrateStrength(int minStrength, long targetMs) {
+    // Warm up the code path
+    new BCryptPasswordEncoder(minStrength).encode("calibration");
+
+    int strength = minStrength;
+    for (int candidate = minStrength; candidate <= MAX_STRENGTH; candidate++) {
+      BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(candidate);
+      long start = System.nanoTime();
+      encoder.encode("calibration");
+      long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+      if (elapsedMs > targetMs) {
+        break;
+      }
+      strength = candidate;
+    }
+
+    log.info("Calibrated BCrypt work factor to {} for a target of {}ms", strength, targetMs);
+    return strength;
+  }
+}
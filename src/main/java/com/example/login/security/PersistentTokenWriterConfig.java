@@ -0,0 +1,34 @@
+package com.example.login.security;
+
+import com.example.login.security.services.InMemoryPersistentTokenStore;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Provides the executor the writer of the persistent tokens saved behind runs on, see {@link
+ * InMemoryPersistentTokenStore}.
+ *
+ * @author sy
+ */
+@Configuration
+public class PersistentTokenWriterConfig {
+
+  /**
+   * Executor running the single writer loop. It is left running when the context closes, the
+   * token store stops the loop itself and writes what is left before the datasource is closed.
+   *
+   * @return the {@link ThreadPoolTaskExecutor}
+   */
+  @Bean
+  public ThreadPoolTaskExecutor persistentTokenWriterExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(1);
+    executor.setMaxPoolSize(1);
+    executor.setQueueCapacity(0);
+    executor.setWaitForTasksToCompleteOnShutdown(true);
+    executor.setAwaitTerminationSeconds(10);
+    executor.setThreadNamePrefix("persistent-token-writer-");
+    return executor;
+  }
+}
@@ -0,0 +1,167 @@
+package com.example.login.security;
+
+import com.example.login.metrics.AuthMetrics;
+import com.example.login.security.jwt.JwtUtils;
+import com.example.login.security.jwt.ReactiveAuthTokenFilter;
+import com.example.login.security.jwt.ReactiveUserDetailsVerificationUtils;
+import com.example.login.security.services.ReactiveUserDetailsServiceImpl;
+import jakarta.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.ReactiveAuthenticationManagerAdapter;
+import org.springframework.security.authentication.UserDetailsRepositoryReactiveAuthenticationManager;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.HttpStatusServerEntryPoint;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.reactive.CorsConfigurationSource;
+import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Provides the {@link ServerHttpSecurity} configurations of the reactive profile, the counterpart
+ * of {@link WebSecurityConfig}: cors, csrf, rules for protected resources and the sign in trying
+ * Active Directory then the users table. The blocking directory bind runs on the bounded elastic
+ * scheduler, the password hashing on the password hashing executor.
+ *
+ * @author sy
+ */
+@Configuration
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+@EnableWebFluxSecurity
+public class ReactiveSecurityConfig {
+
+  @Value("${examplelogin.app.refresh.enabled:false}")
+  private boolean refreshEnabled;
+
+  @Autowired
+  @Qualifier("activeDirectoryLdapAuthenticationProvider")
+  private AuthenticationProvider activeDirectoryLdapAuthenticationProvider;
+
+  @Autowired
+  @Qualifier("passwordHashingExecutor")
+  private Executor passwordHashingExecutor;
+
+  @Autowired private ReactiveUserDetailsServiceImpl userDetailsService;
+
+  @Autowired private PasswordEncoder passwordEncoder;
+
+  @Autowired private JwtUtils jwtUtils;
+
+  @Autowired private ReactiveUserDetailsVerificationUtils userDetailsVerificationUtils;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  @PostConstruct
+  void checkRefreshDisabled() {
+    // The refresh tokens are only issued and rotated by the servlet endpoints
+    if (refreshEnabled) {
+      throw new IllegalStateException(
+          "Error: examplelogin.app.refresh.enabled is not supported by the reactive profile");
+    }
+  }
+
+  /**
+   * The {@link ReactiveAuthenticationManager} to be used, trying Active Directory then the users
+   * table.
+   *
+   * @return the {@link ReactiveAuthenticationManager}
+   */
+  @Bean
+  public ReactiveAuthenticationManager reactiveAuthenticationManager() {
+    ReactiveAuthenticationManagerAdapter activeDirectory =
+        new ReactiveAuthenticationManagerAdapter(
+            new ProviderManager(
+                new TimedAuthenticationProvider(
+                    activeDirectoryLdapAuthenticationProvider, "ad", authMetrics)));
+    activeDirectory.setScheduler(Schedulers.boundedElastic());
+
+    UserDetailsRepositoryReactiveAuthenticationManager dao =
+        new UserDetailsRepositoryReactiveAuthenticationManager(userDetailsService);
+    dao.setPasswordEncoder(passwordEncoder);
+    dao.setUserDetailsPasswordService(userDetailsService);
+    // Bounded, a saturated executor fails the sign in with a RejectedExecutionException
+    dao.setScheduler(Schedulers.fromExecutor(passwordHashingExecutor));
+
+    ReactiveAuthenticationManager timedDao =
+        new TimedReactiveAuthenticationManager(dao, "dao", authMetrics);
+    // A user Active Directory rejects or cannot check is looked up in the users table, whose
+    // failure is then the one reported
+    return authentication ->
+        activeDirectory
+            .authenticate(authentication)
+            .onErrorResume(e -> Mono.empty())
+            .switchIfEmpty(Mono.defer(() -> timedDao.authenticate(authentication)));
+  }
+
+  /**
+   * Instructs {@link ServerHttpSecurity} the CORS and CSRF configuration, the need to authenticate
+   * all users or not, the filter {@link ReactiveAuthTokenFilter} and when to use it, as well as the
+   * 401 response of the unauthenticated requests.
+   *
+   * @param http the {@link ServerHttpSecurity} to modify
+   * @return the {@link SecurityWebFilterChain}
+   */
+  @Bean
+  public SecurityWebFilterChain springSecurityWebFilterChain(ServerHttpSecurity http) {
+    return http.cors(cors -> cors.configurationSource(corsConfigurationSource()))
+        .csrf(ServerHttpSecurity.CsrfSpec::disable)
+        .httpBasic(ServerHttpSecurity.HttpBasicSpec::disable)
+        .formLogin(ServerHttpSecurity.FormLoginSpec::disable)
+        .logout(ServerHttpSecurity.LogoutSpec::disable)
+        // Stateless, nothing is saved between the requests
+        .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+        .exceptionHandling(
+            exceptionHandling ->
+                exceptionHandling.authenticationEntryPoint(
+                    new HttpStatusServerEntryPoint(HttpStatus.UNAUTHORIZED)))
+        .authorizeExchange(
+            authorize ->
+                authorize
+                    .pathMatchers("/api/auth/**")
+                    .permitAll()
+                    .pathMatchers("/actuator/health")
+                    .permitAll()
+                    // Metrics and build details are for the operators only
+                    .pathMatchers("/actuator/**")
+                    .hasRole("ADMIN")
+                    .anyExchange()
+                    .authenticated())
+        .headers(
+            headers ->
+                headers.contentSecurityPolicy(csp -> csp.policyDirectives("script-src 'self'")))
+        .addFilterAt(
+            new ReactiveAuthTokenFilter(jwtUtils, userDetailsVerificationUtils),
+            SecurityWebFiltersOrder.AUTHENTICATION)
+        .build();
+  }
+
+  /** Any origin may call the auth endpoints, as the {@code @CrossOrigin} of the controllers. */
+  private CorsConfigurationSource corsConfigurationSource() {
+    CorsConfiguration configuration = new CorsConfiguration();
+    configuration.setAllowedOrigins(Collections.singletonList("*"));
+    configuration.setAllowedMethods(Collections.singletonList("POST"));
+    configuration.setAllowedHeaders(Collections.singletonList("*"));
+    configuration.setMaxAge(3600L);
+
+    UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+    source.registerCorsConfiguration("/api/auth/**", configuration);
+    return source;
+  }
+}
@@ -0,0 +1,49 @@
+package com.example.login.security;
+
+import com.example.login.metrics.AuthMetrics;
+import java.util.concurrent.TimeUnit;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Decorates an {@link AuthenticationProvider} to time its authentications, tagged by provider name
+ * and outcome.
+ *
+ * @author sy
+ */
+public class TimedAuthenticationProvider implements AuthenticationProvider {
+
+  private final AuthenticationProvider delegate;
+
+  private final String name;
+
+  private final AuthMetrics authMetrics;
+
+  public TimedAuthenticationProvider(
+      AuthenticationProvider delegate, String name, AuthMetrics authMetrics) {
+    this.delegate = delegate;
+    this.name = name;
+    this.authMetrics = authMetrics;
+  }
+
+  @Override
+  public Authentication authenticate(Authentication authentication)
+      throws AuthenticationException {
+    long start = System.nanoTime();
+    String outcome = "failure";
+    try {
+      Authentication result = delegate.authenticate(authentication);
+      outcome = result != null ? "success" : "skipped";
+      return result;
+    } finally {
+      long duration = System.nanoTime() - start;
+      authMetrics.signinTimer(name, outcome).record(duration, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public boolean supports(Class<?> authentication) {
+    return delegate.supports(authentication);
+  }
+}
@@ -0,0 +1,43 @@
+package com.example.login.security;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Provides the bounded executor the token verification requests run on, so that a slow users
+ * table or directory holds a fixed number of threads instead of the request threads.
+ *
+ * @author sy
+ */
+@Configuration
+public class TokenVerificationConfig {
+
+  @Value("${examplelogin.app.verify.executor.threads:0}")
+  private int threads;
+
+  @Value("${examplelogin.app.verify.executor.queueCapacity:1000}")
+  private int queueCapacity;
+
+  /**
+   * Executor running the token verification. Requests beyond the queue capacity are rejected right
+   * away (see {@link ThreadPoolExecutor.AbortPolicy}).
+   *
+   * @return the {@link ThreadPoolTaskExecutor}
+   */
+  @Bean
+  public ThreadPoolTaskExecutor tokenVerificationExecutor() {
+    // Mostly waiting on the database or the directory when not served from the caches
+    int poolSize = threads > 0 ? threads : 2 * Runtime.getRuntime().availableProcessors();
+
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+    executor.setThreadNamePrefix("token-verification-");
+    return executor;
+  }
+}
@@ -1,27 +1,39 @@
 package com.example.login.security;
 
+import com.example.login.metrics.AuthMetrics;
 import com.example.login.security.jwt.AuthEntryPointJwt;
 import com.example.login.security.jwt.AuthTokenFilter;
 import com.example.login.security.services.UserDetailsServiceImpl;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import javax.sql.DataSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.DefaultDirObjectFactory;
 import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.ldap.pool2.factory.PooledContextSource;
+import org.springframework.ldap.pool2.validation.DefaultDirContextValidator;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
-import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
-import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
-import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.ldap.authentication.ad.ActiveDirectoryLdapAuthenticationProvider;
+import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
 /**
@@ -31,12 +43,7 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
  * @author sy
  */
 @Configuration
-@EnableWebSecurity
-@EnableGlobalMethodSecurity(
-    securedEnabled = true,
-    // jsr250Enabled = true,
-    prePostEnabled = true)
-public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
+public class WebSecurityConfig {
 
   @Value("${examplelogin.app.ad.domain}")
   private String domainName;
@@ -44,28 +51,55 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
   @Value("${examplelogin.app.ad.url}")
   private String activeDirectoryUrl;
 
+  @Value("${examplelogin.app.ad.base:DC=ad,DC=test,DC=com}")
+  private String activeDirectoryBase;
+
+  @Value("${examplelogin.app.ad.managerDn:ldapadmin@ad.test.com}")
+  private String activeDirectoryManagerDn;
+
+  @Value("${examplelogin.app.ad.managerPassword:P@ssw0rd1}")
+  private String activeDirectoryManagerPassword;
+
+  @Value("${examplelogin.app.ad.pool.minIdle:1}")
+  private int ldapPoolMinIdle;
+
+  @Value("${examplelogin.app.ad.pool.maxTotal:8}")
+  private int ldapPoolMaxTotal;
+
+  @Value("${examplelogin.app.ad.pool.maxWaitMs:2000}")
+  private long ldapPoolMaxWaitMs;
+
+  @Value("${examplelogin.app.ad.pool.testOnBorrow:true}")
+  private boolean ldapPoolTestOnBorrow;
+
+  @Value("${examplelogin.app.ad.pool.testWhileIdle:true}")
+  private boolean ldapPoolTestWhileIdle;
+
+  @Value("${examplelogin.app.ad.pool.evictionRunIntervalMs:60000}")
+  private long ldapPoolEvictionRunIntervalMs;
+
+  @Value("${examplelogin.app.password.bcrypt.strength:10}")
+  private int bcryptStrength;
+
+  @Value("${examplelogin.app.password.bcrypt.targetMs:0}")
+  private long bcryptTargetMs;
+
   @Value("${examplelogin.app.jwtSecret}")
   private String jwtSecret;
 
   @Autowired UserDetailsServiceImpl userDetailsService;
 
-  @Autowired private AuthEntryPointJwt unauthorizedHandler;
-
   @Autowired private DataSource dataSource;
 
-  @Bean
-  public AuthTokenFilter authenticationJwtTokenFilter() {
-    return new AuthTokenFilter();
-  }
+  @Autowired private AuthMetrics authMetrics;
 
   /**
-   * Used to specify the {@link AuthenticationManager} to be used.
+   * The {@link AuthenticationManager} to be used, trying Active Directory then the users table.
    *
-   * @param auth the {@link AuthenticationManagerBuilder} to use
-   * @throws Exception if an error occurs
+   * @return the {@link AuthenticationManager}
    */
-  @Override
-  public void configure(AuthenticationManagerBuilder auth) throws Exception {
+  @Bean
+  public AuthenticationManager authenticationManager() {
 
     //    auth.ldapAuthentication()
     //        .userSearchFilter("(&(objectClass=user)(sAMAccountName={0}))")
@@ -78,17 +112,32 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
     //        .managerDn("ldapadmin@ad.test.com")
     //        .managerPassword("P@ssw0rd1");
 
-    auth.authenticationProvider(activeDirectoryLdapAuthenticationProvider());
+    return new ProviderManager(
+        Arrays.asList(
+            new TimedAuthenticationProvider(
+                activeDirectoryLdapAuthenticationProvider(), "ad", authMetrics),
+            new TimedAuthenticationProvider(daoAuthenticationProvider(), "dao", authMetrics)));
+  }
+
+  /**
+   * Configure the {@link DaoAuthenticationProvider} to use {@link UserDetailsServiceImpl} and the
+   * {@link #passwordEncoder()}.
+   *
+   * @return the {@link DaoAuthenticationProvider}
+   */
+  @Bean
+  public DaoAuthenticationProvider daoAuthenticationProvider() {
+    DaoAuthenticationProvider daoProvider = new DaoAuthenticationProvider(userDetailsService);
+    daoProvider.setPasswordEncoder(passwordEncoder());
+    daoProvider.setUserDetailsPasswordService(userDetailsService);
 
-    // Configure the {@link DaoAuthenticationProvider} to use {@link userDetailsService} as the
-    // configuration
-    auth.userDetailsService(userDetailsService).passwordEncoder(passwordEncoder());
+    return daoProvider;
   }
 
   // TEST 1
   @Bean
   public LdapTemplate ldapTemplate() {
-    LdapTemplate ldap = new LdapTemplate(getLdapContext());
+    LdapTemplate ldap = new LdapTemplate(pooledLdapContextSource());
     return ldap;
   }
 
@@ -96,14 +145,39 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
   public LdapContextSource getLdapContext() {
     LdapContextSource lcs = new LdapContextSource();
     lcs.setUrl(activeDirectoryUrl);
-    lcs.setBase("DC=ad,DC=test,DC=com");
-    lcs.setUserDn("ldapadmin@ad.test.com");
-    lcs.setPassword("P@ssw0rd1");
+    lcs.setBase(activeDirectoryBase);
+    lcs.setUserDn(activeDirectoryManagerDn);
+    lcs.setPassword(activeDirectoryManagerPassword);
     lcs.setDirObjectFactory(DefaultDirObjectFactory.class);
     lcs.afterPropertiesSet();
     return lcs;
   }
 
+  /**
+   * Pool the connections of {@link #getLdapContext()} so the directory searches do not open and
+   * bind a new connection every time. Pooled connections are validated before being borrowed and
+   * while idle.
+   *
+   * @return the {@link PooledContextSource}
+   */
+  @Bean
+  public PooledContextSource pooledLdapContextSource() {
+    PoolConfig poolConfig = new PoolConfig();
+    poolConfig.setMinIdlePerKey(ldapPoolMinIdle);
+    poolConfig.setMaxIdlePerKey(ldapPoolMaxTotal);
+    poolConfig.setMaxTotalPerKey(ldapPoolMaxTotal);
+    poolConfig.setMaxTotal(ldapPoolMaxTotal);
+    poolConfig.setMaxWaitMillis(ldapPoolMaxWaitMs);
+    poolConfig.setTestOnBorrow(ldapPoolTestOnBorrow);
+    poolConfig.setTestWhileIdle(ldapPoolTestWhileIdle);
+    poolConfig.setTimeBetweenEvictionRunsMillis(ldapPoolEvictionRunIntervalMs);
+
+    PooledContextSource pooledContextSource = new PooledContextSource(poolConfig);
+    pooledContextSource.setContextSource(getLdapContext());
+    pooledContextSource.setDirContextValidator(new DefaultDirContextValidator());
+    return pooledContextSource;
+  }
+
   // Explict datasource in case the autowired not working
   //  @Bean
   //  public DataSource getDataSource() {
@@ -129,62 +203,93 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
     return adProvider;
   }
 
-  /**
-   * Expose the {@link AuthenticationManager} from {@link #configure(AuthenticationManagerBuilder)}.
-   *
-   * @return the {@link AuthenticationManager}
-   * @throws Exception if an error occurs
-   */
-  @Bean
-  @Override
-  public AuthenticationManager authenticationManagerBean() throws Exception {
-    return super.authenticationManagerBean();
-  }
-
   /**
    * PasswordEncoder for the DaoAuthenticationProvider, if not specified plain text would be used.
    *
-   * @return the {@link BCryptPasswordEncoder}
+   * <p>Hashes are prefixed by the id of their encoder ({bcrypt}), the hashes stored without prefix
+   * are matched with BCrypt. Hashes that are not prefixed or use a lower work factor than the
+   * current one are upgraded on the next successful sign in, see {@link
+   * DaoAuthenticationProvider#setUserDetailsPasswordService}.
+   *
+   * @return the {@link DelegatingPasswordEncoder}
    */
   @Bean
   public PasswordEncoder passwordEncoder() {
-    return new BCryptPasswordEncoder();
+    int strength =
+        bcryptTargetMs > 0
+            ? PasswordHashingConfig.calibrateStrength(bcryptStrength, bcryptTargetMs)
+            : bcryptStrength;
+    BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(strength);
+
+    Map<String, PasswordEncoder> encoders = new HashMap<>();
+    encoders.put("bcrypt", bcrypt);
+
+    DelegatingPasswordEncoder passwordEncoder = new DelegatingPasswordEncoder("bcrypt", encoders);
+    passwordEncoder.setDefaultPasswordEncoderForMatches(bcrypt);
+    return passwordEncoder;
   }
 
   /**
-   * Instructs {@link HttpSecurity} the CORS and CSRF configuration, the need to authenticated all
-   * users or not, the filter {@link AuthTokenFilter} and when to use it (before {@link
-   * UsernamePasswordAuthenticationFilter} as well as the Exception Handler {@link
-   * AuthEntryPointJwt} chosen.
-   *
-   * @param http the {@link HttpSecurity} to modify
-   * @throws Exception if an error occurs
+   * The {@link HttpSecurity} of the servlet stack, {@link ReactiveSecurityConfig} replaces it in
+   * the reactive profile. The authentication and directory beans above serve both.
    */
-  @Override
-  protected void configure(HttpSecurity http) throws Exception {
-    http.cors()
-        .and()
-        .csrf()
-        .disable()
-        .exceptionHandling()
-        .authenticationEntryPoint(unauthorizedHandler)
-        .and()
-        .sessionManagement()
-        .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
-        .and()
-        .authorizeRequests()
-        .antMatchers("/api/auth/**")
-        .permitAll()
-        .and()
-        .authorizeRequests()
-        .antMatchers("/api/test/**")
-        .permitAll()
-        .anyRequest()
-        .authenticated()
-        .and()
-        .headers()
-        .contentSecurityPolicy("script-src 'self'");
-    http.addFilterBefore(
-        authenticationJwtTokenFilter(), UsernamePasswordAuthenticationFilter.class);
+  @Configuration
+  @ConditionalOnWebApplication(type = Type.SERVLET)
+  @EnableWebSecurity
+  @EnableMethodSecurity(
+      securedEnabled = true,
+      // jsr250Enabled = true,
+      prePostEnabled = true)
+  public static class ServletSecurityConfig {
+
+    @Autowired private AuthEntryPointJwt unauthorizedHandler;
+
+    @Bean
+    public AuthTokenFilter authenticationJwtTokenFilter() {
+      return new AuthTokenFilter();
+    }
+
+    /**
+     * Instructs {@link HttpSecurity} the CORS and CSRF configuration, the need to authenticated all
+     * users or not, the filter {@link AuthTokenFilter} and when to use it (before {@link
+     * UsernamePasswordAuthenticationFilter} as well as the Exception Handler {@link
+     * AuthEntryPointJwt} chosen.
+     *
+     * @param http the {@link HttpSecurity} to modify
+     * @return the {@link SecurityFilterChain}
+     * @throws Exception if an error occurs
+     */
+    @Bean
+    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+      http.cors(Customizer.withDefaults())
+          .csrf(csrf -> csrf.disable())
+          .exceptionHandling(
+              exceptionHandling -> exceptionHandling.authenticationEntryPoint(unauthorizedHandler))
+          .sessionManagement(
+              sessionManagement ->
+                  sessionManagement.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+          .authorizeHttpRequests(
+              authorize ->
+                  authorize
+                      .requestMatchers("/api/auth/**")
+                      .permitAll()
+                      .requestMatchers("/api/test/**")
+                      .permitAll()
+                      .requestMatchers("/actuator/health")
+                      .permitAll()
+                      // Metrics and build details are for the operators only
+                      .requestMatchers("/actuator/**")
+                      .hasRole("ADMIN")
+                      .requestMatchers("/.well-known/jwks.json")
+                      .permitAll()
+                      .anyRequest()
+                      .authenticated())
+          .headers(
+              headers ->
+                  headers.contentSecurityPolicy(csp -> csp.policyDirectives("script-src 'self'")));
+      http.addFilterBefore(
+          authenticationJwtTokenFilter(), UsernamePasswordAuthenticationFilter.class);
+      return http.build();
+    }
   }
 }
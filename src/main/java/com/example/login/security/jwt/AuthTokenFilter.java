@@ -1,19 +1,18 @@
 package com.example.login.security.jwt;
 
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import javax.servlet.FilterChain;
-import javax.servlet.ServletException;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
+import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
-import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 /**
@@ -52,46 +51,22 @@ public class AuthTokenFilter extends OncePerRequestFilter {
       HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
       throws ServletException, IOException {
     try {
-      String jwt = parseJwt(request);
+      String jwt = jwtUtils.parseJwt(request);
       // If the request has JWT, validate it and parse the username
-      if (jwt != null && jwtUtils.validateJwtToken(jwt)) {
-        String username = jwtUtils.getUserNameFromJwtToken(jwt);
-
-        try {
-          // First find the username from dao
-          UsernamePasswordAuthenticationToken authentication =
-              userDetailsVerificationUtils.verifyFromDao(username);
-          authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-          // set the current UserDetails in the {@link SecurityContext}
-          SecurityContextHolder.getContext().setAuthentication(authentication);
-        } catch (UsernameNotFoundException ex) {
-
-          // If not find the username from ldap
-          UsernamePasswordAuthenticationToken authentication =
-              userDetailsVerificationUtils.verifyFromLdap(username, jwt);
-          authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-          SecurityContextHolder.getContext().setAuthentication(authentication);
-        }
+      Optional<JwtClaims> claims = jwt != null ? jwtUtils.parseJwtToken(jwt) : Optional.empty();
+      if (claims.isPresent()) {
+        // Verify against the store the username belongs to, or the claims in the stateless mode
+        UsernamePasswordAuthenticationToken authentication =
+            userDetailsVerificationUtils.verify(claims.get(), jwt);
+        authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+        // set the current UserDetails in the {@link SecurityContext}
+        SecurityContextHolder.getContext().setAuthentication(authentication);
       }
     } catch (Exception e) {
-      log.error("Cannot set user authentication: {}", e.getMessage());
+      if (jwtUtils.tryLogFailure()) {
+        log.error("Cannot set user authentication: {}", e.getMessage());
+      }
     }
     filterChain.doFilter(request, response);
   }
-
-  /**
-   * Parse the JWT and obtain the Authorization header by removing Bearer prefix.
-   *
-   * @param request the {@link HttpServletRequest} contains the client's request
-   * @return the stripped header or null if Authorization header does not exists
-   */
-  private String parseJwt(HttpServletRequest request) {
-    String headerAuth = request.getHeader("Authorization");
-
-    if (StringUtils.hasText(headerAuth) && headerAuth.startsWith("Bearer ")) {
-      return headerAuth.substring(7);
-    }
-
-    return null;
-  }
 }
@@ -0,0 +1,58 @@
+package com.example.login.security.jwt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lets through a fixed number of failure logs per second, so that a flood of invalid JWT does not
+ * turn into a flood of logs. The number of logs held back is logged once the second is over, by the
+ * next failure or by {@link #flush()}.
+ *
+ * @author sy
+ */
+@Slf4j
+final class FailureLogLimiter {
+
+  private static final long WINDOW_MS = 1000;
+
+  private final int permitsPerSecond;
+
+  private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+  private final AtomicInteger logged = new AtomicInteger();
+
+  private final AtomicInteger suppressed = new AtomicInteger();
+
+  FailureLogLimiter(int permitsPerSecond) {
+    this.permitsPerSecond = permitsPerSecond;
+  }
+
+  /**
+   * Take a permit to log a failure.
+   *
+   * @return true if the failure may be logged, false if held back
+   */
+  boolean tryAcquire() {
+    flush();
+
+    if (logged.incrementAndGet() <= permitsPerSecond) {
+      return true;
+    }
+    suppressed.incrementAndGet();
+    return false;
+  }
+
+  /** Start a new window once the second is over, logging the number of logs held back. */
+  void flush() {
+    long now = System.currentTimeMillis();
+    long start = windowStart.get();
+    if (now - start >= WINDOW_MS && windowStart.compareAndSet(start, now)) {
+      logged.set(0);
+      int held = suppressed.getAndSet(0);
+      if (held > 0) {
+        log.warn("{} authentication failures not logged in the last {} ms", held, now - start);
+      }
+    }
+  }
+}
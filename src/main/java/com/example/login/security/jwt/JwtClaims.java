@@ -0,0 +1,38 @@
+package com.example.login.security.jwt;
+
+import com.example.login.security.services.PrincipalSource;
+import java.util.Date;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Claims of a JWT whose signature and expiration have been verified by {@link JwtUtils}.
+ *
+ * @author sy
+ */
+@AllArgsConstructor
+@Getter
+public class JwtClaims {
+
+  private final String username;
+
+  private final Date issuedAt;
+
+  private final Date expiration;
+
+  /** Id (jti) of the JWT, null for the JWT issued before the revocation list. */
+  private final String id;
+
+  /** Id of the user, only carried by the JWT of the DAO users issued in the stateless mode. */
+  private final Long userId;
+
+  /** Roles of the principal, null for the JWT not issued in the stateless mode. */
+  private final List<String> roles;
+
+  /** Store of the principal, null for the JWT not issued in the stateless mode. */
+  private final PrincipalSource source;
+
+  /** Version of the credentials of a DAO user, changed by a password change only. */
+  private final Long credentialsVersion;
+}
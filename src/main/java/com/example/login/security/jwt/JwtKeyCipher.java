@@ -0,0 +1,77 @@
+package com.example.login.security.jwt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts the private keys of the {@link JwtKeyRing} before they are stored, with AES-256-GCM. The
+ * kid is authenticated along, a private key cannot be moved to another row.
+ *
+ * @author sy
+ */
+final class JwtKeyCipher {
+
+  /** AES-256 requires a key of 256 bits. */
+  static final int KEY_BYTES = 32;
+
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+  private static final int IV_BYTES = 12;
+
+  private static final int TAG_BITS = 128;
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final SecretKey key;
+
+  /**
+   * Creates the cipher.
+   *
+   * @param key the AES-256 key, {@value #KEY_BYTES} bytes
+   */
+  JwtKeyCipher(byte[] key) {
+    this.key = new SecretKeySpec(key, "AES");
+  }
+
+  /**
+   * Encrypt the given private key.
+   *
+   * @param kid the kid of the private key
+   * @param privateKey the PKCS#8 encoding of the private key
+   * @return the IV followed by the ciphertext and its tag
+   */
+  byte[] encrypt(String kid, byte[] privateKey) {
+    byte[] iv = new byte[IV_BYTES];
+    RANDOM.nextBytes(iv);
+    try {
+      Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+      cipher.updateAAD(kid.getBytes(StandardCharsets.US_ASCII));
+      byte[] ciphertext = cipher.doFinal(privateKey);
+      return ByteBuffer.allocate(IV_BYTES + ciphertext.length).put(iv).put(ciphertext).array();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("AES-GCM is not supported by the JVM", e);
+    }
+  }
+
+  /**
+   * Decrypt the given private key.
+   *
+   * @param kid the kid of the private key
+   * @param encrypted the IV followed by the ciphertext and its tag
+   * @return the PKCS#8 encoding of the private key
+   * @throws GeneralSecurityException if encrypted with another key or for another kid
+   */
+  byte[] decrypt(String kid, byte[] encrypted) throws GeneralSecurityException {
+    Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, encrypted, 0, IV_BYTES));
+    cipher.updateAAD(kid.getBytes(StandardCharsets.US_ASCII));
+    return cipher.doFinal(encrypted, IV_BYTES, encrypted.length - IV_BYTES);
+  }
+}
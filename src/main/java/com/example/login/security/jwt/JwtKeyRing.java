@@ -0,0 +1,297 @@
+package com.example.login.security.jwt;
+
+import jakarta.annotation.PostConstruct;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Keeps in memory the ES256 keys the jwt are signed with, so that other services can verify the
+ * jwt offline with the public keys published as a JWKS.
+ *
+ * <p>The keys are generated locally and shared by the nodes through the jwt_signing_keys table.
+ * Each key is published one rotation ahead of its activation, signs for rotationMs and stays
+ * published until the last jwt it signed expires. A JWKS cached by a verifier thus always holds
+ * the key of the jwt it is given.
+ *
+ * <p>The private keys are stored encrypted with the AES-256 encryptionKey, the table alone does not
+ * allow to sign jwt. The keys stored unencrypted by an earlier version are encrypted on rotation.
+ *
+ * @author sy
+ */
+@Component
+@Slf4j
+public class JwtKeyRing {
+
+  /** Key of the advisory lock held while rotating. */
+  private static final long ROTATION_LOCK_KEY = 0x6a776b73L;
+
+  private static final String SELECT_KEYS =
+      "select kid, private_key, public_key, activates_at, expires_at, encrypted"
+          + " from jwt_signing_keys where expires_at > ? order by activates_at, kid";
+
+  @Value("${examplelogin.app.jwtKeys.enabled:false}")
+  private boolean enabled;
+
+  @Value("${examplelogin.app.jwtKeys.rotationMs:86400000}")
+  private long rotationMs;
+
+  @Value("${examplelogin.app.jwtKeys.refreshMs:60000}")
+  private long refreshMs;
+
+  @Value("${examplelogin.app.jwtKeys.encryptionKey:}")
+  private String encryptionKey;
+
+  @Value("${examplelogin.app.jwtExpirationMs}")
+  private int jwtExpirationMs;
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  private TransactionTemplate transactionTemplate;
+
+  private JwtKeyCipher cipher;
+
+  private volatile KeyRingState state = new KeyRingState(Collections.emptyMap(), null);
+
+  @PostConstruct
+  void init() {
+    if (!enabled) {
+      return;
+    }
+
+    byte[] key = Base64.getDecoder().decode(encryptionKey);
+    if (key.length != JwtKeyCipher.KEY_BYTES) {
+      throw new IllegalStateException(
+          "Error: examplelogin.app.jwtKeys.encryptionKey must be the Base64 encoding of "
+              + JwtKeyCipher.KEY_BYTES
+              + " bytes for AES-256.");
+    }
+    cipher = new JwtKeyCipher(key);
+
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    rotate();
+    load();
+    log.info("Signing the jwt with key {}", state.current.getKid());
+  }
+
+  /**
+   * Whether the jwt are signed with the key ring, or with the shared secret.
+   *
+   * @return true/false if enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Retrieve the key the jwt are signed with.
+   *
+   * @return the active {@link JwtSigningKey}
+   * @throws IllegalStateException if there is no active key
+   */
+  public JwtSigningKey signingKey() {
+    JwtSigningKey current = state.current;
+    if (current == null) {
+      throw new IllegalStateException("Error: No active jwt signing key.");
+    }
+    return current;
+  }
+
+  /**
+   * Retrieve the published key of the given kid.
+   *
+   * @param kid Value to search
+   * @return the {@link JwtSigningKey} or null if unknown or expired
+   */
+  public JwtSigningKey findKey(String kid) {
+    return state.keys.get(kid);
+  }
+
+  /**
+   * Retrieve the published keys, i.e. the next, active and retired keys not expired yet.
+   *
+   * @return the {@link JwtSigningKey} by activation
+   */
+  public Collection<JwtSigningKey> publishedKeys() {
+    return state.keys.values();
+  }
+
+  /** Rotate the keys if due and load the keys rotated by the other nodes. */
+  @Scheduled(
+      initialDelayString = "${examplelogin.app.jwtKeys.refreshMs:60000}",
+      fixedDelayString = "${examplelogin.app.jwtKeys.refreshMs:60000}")
+  public void refresh() {
+    if (!enabled) {
+      return;
+    }
+
+    try {
+      rotate();
+      load();
+    } catch (Exception e) {
+      log.error("Failed to refresh the jwt signing keys: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Make sure there is an active key and a next one, deleting the expired keys. The nodes rotate
+   * one at a time under a transaction scoped advisory lock.
+   */
+  private void rotate() {
+    transactionTemplate.execute(
+        status -> {
+          jdbcTemplate.query(
+              "select pg_advisory_xact_lock(?)",
+              (ResultSetExtractor<Void>) rs -> null,
+              ROTATION_LOCK_KEY);
+
+          encryptStoredKeys();
+
+          Date now = new Date();
+          KeyRingState ring = select(now);
+
+          Date nextActivation;
+          if (ring.current == null
+              || ring.current.getActivatesAt().getTime() + rotationMs <= now.getTime()) {
+            // First start or no rotation for a while, there is no time to publish it ahead
+            insert(now);
+            nextActivation = new Date(now.getTime() + rotationMs);
+          } else {
+            nextActivation = new Date(ring.current.getActivatesAt().getTime() + rotationMs);
+          }
+
+          boolean published =
+              ring.keys.values().stream().anyMatch(key -> key.getActivatesAt().after(now));
+          if (!published) {
+            insert(nextActivation);
+          }
+
+          jdbcTemplate.update(
+              "delete from jwt_signing_keys where expires_at <= ?", new Timestamp(now.getTime()));
+          return null;
+        });
+  }
+
+  /** Encrypt the private keys stored unencrypted by an earlier version. */
+  private void encryptStoredKeys() {
+    jdbcTemplate
+        .query(
+            "select kid, private_key from jwt_signing_keys where not encrypted",
+            (rs, rowNum) -> new Object[] {rs.getString(1), rs.getBytes(2)})
+        .forEach(
+            row ->
+                jdbcTemplate.update(
+                    "update jwt_signing_keys set private_key = ?, encrypted = true where kid = ?",
+                    cipher.encrypt((String) row[0], (byte[]) row[1]),
+                    row[0]));
+  }
+
+  private void load() {
+    state = select(new Date());
+  }
+
+  private KeyRingState select(Date now) {
+    List<JwtSigningKey> keys =
+        jdbcTemplate.query(
+            SELECT_KEYS,
+            (rs, rowNum) ->
+                toKey(
+                    rs.getString(1),
+                    rs.getBytes(2),
+                    rs.getBytes(3),
+                    rs.getTimestamp(4),
+                    rs.getTimestamp(5),
+                    rs.getBoolean(6)),
+            new Timestamp(now.getTime()));
+
+    Map<String, JwtSigningKey> byKid = new LinkedHashMap<>();
+    JwtSigningKey current = null;
+    for (JwtSigningKey key : keys) {
+      byKid.put(key.getKid(), key);
+      if (!key.getActivatesAt().after(now)) {
+        // Ordered by activation, the last one activated wins
+        current = key;
+      }
+    }
+    return new KeyRingState(Collections.unmodifiableMap(byKid), current);
+  }
+
+  private void insert(Date activatesAt) {
+    KeyPair keyPair;
+    try {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+      generator.initialize(new ECGenParameterSpec("secp256r1"));
+      keyPair = generator.generateKeyPair();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("ES256 keys are not supported by the JVM", e);
+    }
+
+    // Signs for one rotation, the slack covers a late rotation
+    long expiresAt = activatesAt.getTime() + rotationMs + refreshMs + jwtExpirationMs;
+    String kid = UUID.randomUUID().toString();
+    jdbcTemplate.update(
+        "insert into jwt_signing_keys"
+            + " (kid, private_key, public_key, activates_at, expires_at, encrypted)"
+            + " values (?, ?, ?, ?, ?, true)",
+        kid,
+        cipher.encrypt(kid, keyPair.getPrivate().getEncoded()),
+        keyPair.getPublic().getEncoded(),
+        new Timestamp(activatesAt.getTime()),
+        new Timestamp(expiresAt));
+  }
+
+  private JwtSigningKey toKey(
+      String kid,
+      byte[] privateKey,
+      byte[] publicKey,
+      Date activatesAt,
+      Date expiresAt,
+      boolean encrypted) {
+    try {
+      KeyFactory keyFactory = KeyFactory.getInstance("EC");
+      byte[] pkcs8 = encrypted ? cipher.decrypt(kid, privateKey) : privateKey;
+      return new JwtSigningKey(
+          kid,
+          keyFactory.generatePrivate(new PKCS8EncodedKeySpec(pkcs8)),
+          (ECPublicKey) keyFactory.generatePublic(new X509EncodedKeySpec(publicKey)),
+          activatesAt,
+          expiresAt);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Invalid jwt signing key " + kid, e);
+    }
+  }
+
+  /** Published keys by kid and the active key, swapped together. */
+  @AllArgsConstructor
+  private static class KeyRingState {
+    private final Map<String, JwtSigningKey> keys;
+
+    private final JwtSigningKey current;
+  }
+}
@@ -0,0 +1,88 @@
+package com.example.login.security.jwt;
+
+import java.util.List;
+
+/**
+ * Rejects in one pass the strings that cannot be a JWT issued by {@link JwtUtils}, before the
+ * digest, the parsing and the signature verification, none of which throws for them then.
+ *
+ * @author sy
+ */
+final class JwtPreValidator {
+
+  /** Characters of the unpadded Base64url alphabet. */
+  private static final boolean[] BASE64URL = new boolean[128];
+
+  static {
+    for (char c = 'A'; c <= 'Z'; c++) {
+      BASE64URL[c] = true;
+    }
+    for (char c = 'a'; c <= 'z'; c++) {
+      BASE64URL[c] = true;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      BASE64URL[c] = true;
+    }
+    BASE64URL['-'] = true;
+    BASE64URL['_'] = true;
+  }
+
+  private final int maxLength;
+
+  private final List<String> headerPrefixes;
+
+  /**
+   * Creates the pre-validator.
+   *
+   * @param maxLength the maximum length of a JWT
+   * @param headerPrefixes the Base64url prefixes a JWT header may start with
+   */
+  JwtPreValidator(int maxLength, List<String> headerPrefixes) {
+    this.maxLength = maxLength;
+    this.headerPrefixes = headerPrefixes;
+  }
+
+  /**
+   * Check the length, header prefix, alphabet and segments of the given JWT.
+   *
+   * @param token Value to check, not null
+   * @return the reason of the rejection (length, header, alphabet, segments) or null if the JWT
+   *     may be valid
+   */
+  String check(String token) {
+    int length = token.length();
+    if (length > maxLength) {
+      return "length";
+    }
+    if (!hasHeaderPrefix(token)) {
+      return "header";
+    }
+
+    int dots = 0;
+    int segmentStart = 0;
+    for (int i = 0; i < length; i++) {
+      char c = token.charAt(i);
+      if (c == '.') {
+        if (i == segmentStart) {
+          return "segments";
+        }
+        dots++;
+        segmentStart = i + 1;
+      } else if (c >= BASE64URL.length || !BASE64URL[c]) {
+        return "alphabet";
+      }
+    }
+
+    // Header, payload and signature, none empty
+    return dots == 2 && segmentStart < length ? null : "segments";
+  }
+
+  private boolean hasHeaderPrefix(String token) {
+    for (int i = 0; i < headerPrefixes.size(); i++) {
+      if (token.startsWith(headerPrefixes.get(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
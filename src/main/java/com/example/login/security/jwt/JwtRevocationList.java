@@ -0,0 +1,119 @@
+package com.example.login.security.jwt;
+
+import com.example.login.metrics.AuthMetrics;
+import com.example.login.models.RevokedToken;
+import com.example.login.repository.RevokedTokenRepository;
+import jakarta.annotation.PostConstruct;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the ids (jti) of the jwt signed out before their expiration, checked on every request
+ * without I/O, a lookup in the set of the revocations not expired yet.
+ *
+ * <p>The revocations are saved in the revoked_tokens table, loaded at startup and synced from the
+ * other nodes periodically. They are dropped from memory and from the table once the jwt expires.
+ *
+ * @author sy
+ */
+@Component
+@Slf4j
+public class JwtRevocationList {
+
+  @Value("${examplelogin.app.revocation.syncOverlapMs:60000}")
+  private long syncOverlapMs;
+
+  @Autowired private RevokedTokenRepository revokedTokenRepository;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  /** Expiration in milliseconds of the revoked jwt, by jti. */
+  private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+  /** Start of the last sync, only accessed by the scheduler once initialized. */
+  private long lastSyncMs;
+
+  @PostConstruct
+  void init() {
+    lastSyncMs = System.currentTimeMillis();
+    load(revokedTokenRepository.findByExpiresAtAfter(new Date(lastSyncMs)), lastSyncMs);
+    authMetrics.monitorRevocations(revoked);
+  }
+
+  /**
+   * Check whether the jwt of the given id has been revoked.
+   *
+   * @param jti Value to check, null for the jwt issued without id
+   * @return true/false if revoked
+   */
+  public boolean isRevoked(String jti) {
+    return jti != null && revoked.containsKey(jti);
+  }
+
+  /**
+   * Revoke the jwt of the given id until its expiration, on this node right away and on the other
+   * nodes at their next sync.
+   *
+   * @param jti Value to revoke
+   * @param expiration the expiration of the jwt
+   */
+  public void revoke(String jti, Date expiration) {
+    Date now = new Date();
+    if (jti == null || expiration == null || !expiration.after(now)) {
+      return;
+    }
+
+    add(jti, expiration.getTime());
+    revokedTokenRepository.save(new RevokedToken(jti, expiration, now));
+  }
+
+  /**
+   * Load the revocations made on the other nodes since the last sync, then drop the expired ones.
+   */
+  @Scheduled(
+      initialDelayString = "${examplelogin.app.revocation.syncMs:10000}",
+      fixedDelayString = "${examplelogin.app.revocation.syncMs:10000}")
+  public void sync() {
+    try {
+      long now = System.currentTimeMillis();
+      // The overlap covers the clock skew between the nodes and the revocations still committing
+      load(revokedTokenRepository.findByRevokedAtAfter(new Date(lastSyncMs - syncOverlapMs)), now);
+      lastSyncMs = now;
+
+      if (prune(now)) {
+        revokedTokenRepository.deleteExpired(new Date(now));
+      }
+    } catch (Exception e) {
+      log.error("Failed to sync the revoked jwt: {}", e.getMessage());
+    }
+  }
+
+  private void load(List<RevokedToken> tokens, long now) {
+    for (RevokedToken token : tokens) {
+      if (token.getExpiresAt().getTime() > now) {
+        add(token.getJti(), token.getExpiresAt().getTime());
+      }
+    }
+  }
+
+  private void add(String jti, long expiration) {
+    revoked.put(jti, expiration);
+  }
+
+  /**
+   * Drop the expired revocations.
+   *
+   * @param now the current time in milliseconds
+   * @return true/false if any revocation expired
+   */
+  private boolean prune(long now) {
+    return revoked.values().removeIf(expiration -> expiration <= now);
+  }
+}
@@ -0,0 +1,29 @@
+package com.example.login.security.jwt;
+
+import java.security.PrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.Date;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * ES256 key pair of the {@link JwtKeyRing}, identified in the jwt header by its kid.
+ *
+ * @author sy
+ */
+@AllArgsConstructor
+@Getter
+public class JwtSigningKey {
+
+  private final String kid;
+
+  private final PrivateKey privateKey;
+
+  private final ECPublicKey publicKey;
+
+  /** Start of the signing with this key, the key is published before. */
+  private final Date activatesAt;
+
+  /** End of the publication of this key, once the jwt it signed have expired. */
+  private final Date expiresAt;
+}
@@ -1,19 +1,45 @@
 package com.example.login.security.jwt;
 
-import com.example.login.security.services.TokenDetailsServiceImpl;
+import com.example.login.metrics.AuthMetrics;
+import com.example.login.models.ERole;
+import com.example.login.security.services.PrincipalSource;
+import com.example.login.security.services.RoleRegistry;
 import com.example.login.security.services.UserDetailsImpl;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.SigningKeyResolver;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
 import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.time.Clock;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.ldap.userdetails.LdapUserDetailsImpl;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Component;
 
 /**
@@ -25,49 +51,188 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class JwtUtils {
 
+  private static final String CLAIM_USER_ID = "uid";
+
+  private static final String CLAIM_ROLES = "roles";
+
+  private static final String CLAIM_SOURCE = "src";
+
+  /**
+   * The version of the credentials of a DAO user. It replaces the "ver" fingerprint of the password
+   * hash, which the upgrade of the hash on sign in changed: a jwt carrying the latter is not
+   * checked.
+   */
+  private static final String CLAIM_CREDENTIALS_VERSION = "cver";
+
+  /** HS512 requires a key of at least 512 bits. */
+  private static final int MIN_SECRET_BYTES = 64;
+
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  /** Base64url characters encoding the start of the header of a JWT with kid: {"kid". */
+  private static final int KID_HEADER_PREFIX_LENGTH = 8;
+
   @Value("${examplelogin.app.jwtSecret}")
   private String jwtSecret;
 
   @Value("${examplelogin.app.jwtExpirationMs}")
   private int jwtExpirationMs;
 
-  @Autowired private TokenDetailsServiceImpl tokenDetailsService;
+  @Value("${examplelogin.app.refresh.enabled:false}")
+  private boolean refreshEnabled;
+
+  @Value("${examplelogin.app.refresh.accessTokenExpirationMs:900000}")
+  private int accessTokenExpirationMs;
+
+  @Value("${examplelogin.app.jwtMaxLength:8192}")
+  private int jwtMaxLength;
+
+  @Value("${examplelogin.app.jwtFailureLog.permitsPerSecond:10}")
+  private int failureLogPermitsPerSecond;
+
+  @Value("${examplelogin.app.jwtCache.maximumSize:10000}")
+  private long jwtCacheMaximumSize;
+
+  @Value("${examplelogin.app.stateless.enabled:false}")
+  private boolean statelessEnabled;
+
+  @Autowired private JwtRevocationList revocationList;
+
+  @Autowired private RoleRegistry roleRegistry;
+
+  @Autowired private JwtKeyRing keyRing;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  @Autowired private Clock clock;
+
+  /** Verified claims keyed by the SHA-256 digest of the JWT they were parsed from. */
+  private Cache<ByteBuffer, JwtClaims> claimsCache;
+
+  /** Key of the JWT signed with the shared secret, i.e. issued without kid. */
+  private Key secretKey;
+
+  /** Immutable and thread-safe, built once. */
+  private JwtParser jwtParser;
+
+  private JwtPreValidator preValidator;
+
+  private FailureLogLimiter failureLog;
+
+  private final SigningKeyResolver signingKeyResolver =
+      new SigningKeyResolverAdapter() {
+        @Override
+        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+          return resolveKey(header);
+        }
+      };
+
+  @PostConstruct
+  void init() {
+    byte[] secret = Decoders.BASE64.decode(jwtSecret);
+    if (secret.length < MIN_SECRET_BYTES) {
+      throw new IllegalStateException(
+          "Error: examplelogin.app.jwtSecret must be the Base64 encoding of at least "
+              + MIN_SECRET_BYTES
+              + " bytes for HS512.");
+    }
+    secretKey = Keys.hmacShaKeyFor(secret);
+    jwtParser =
+        Jwts.parserBuilder()
+            .setSigningKeyResolver(signingKeyResolver)
+            .setClock(() -> new Date(clock.millis()))
+            .build();
+
+    // The headers written by jjwt, derived from it so that they follow its serialization
+    List<String> headerPrefixes = new ArrayList<>();
+    headerPrefixes.add(probeHeader(Jwts.builder()) + ".");
+    if (keyRing.isEnabled()) {
+      headerPrefixes.add(
+          probeHeader(Jwts.builder().setHeaderParam(JwsHeader.KEY_ID, "kid"))
+              .substring(0, KID_HEADER_PREFIX_LENGTH));
+    }
+    preValidator = new JwtPreValidator(jwtMaxLength, headerPrefixes);
+    failureLog = new FailureLogLimiter(failureLogPermitsPerSecond);
+
+    claimsCache =
+        Caffeine.newBuilder()
+            .maximumSize(jwtCacheMaximumSize)
+            .expireAfter(new JwtClaimsExpiry())
+            .recordStats()
+            .build();
+    authMetrics.monitor(claimsCache, "jwtClaims");
+  }
+
+  private String probeHeader(JwtBuilder builder) {
+    String probe =
+        builder.setSubject("probe").signWith(secretKey, SignatureAlgorithm.HS512).compact();
+    return probe.substring(0, probe.indexOf('.'));
+  }
 
   /**
-   * Generate a JWT from username, date, expiration, secret.
+   * Generate a JWT from username, date, expiration, secret, with a random id to revoke it by. In
+   * the stateless mode the JWT also carries the principal claims (user id, roles, source and
+   * credentials version) the requests are then authenticated from. With the key ring enabled, the
+   * JWT is signed with its active ES256 key, named by the kid header, instead of the secret.
    *
    * @param authentication Value to create the JWT from
    * @return the newly created {@link Jwts}
    */
   public String generateJwtToken(Authentication authentication) {
+    Date now = new Date(clock.millis());
+    // Short lived access tokens when they can be refreshed
+    Date validity =
+        new Date(now.getTime() + (refreshEnabled ? accessTokenExpirationMs : jwtExpirationMs));
 
-    Date now = new Date();
-    Date validity = new Date(now.getTime() + jwtExpirationMs);
-
-    if (authentication.getPrincipal() instanceof LdapUserDetailsImpl) {
-      LdapUserDetailsImpl userPrincipal = (LdapUserDetailsImpl) authentication.getPrincipal();
+    JwtBuilder builder =
+        Jwts.builder()
+            .setId(UUID.randomUUID().toString())
+            .setSubject(authentication.getName())
+            .setIssuedAt(now)
+            .setExpiration(validity);
+    if (statelessEnabled) {
+      addPrincipalClaims(builder, authentication);
+    }
 
-      String jwtToken =
-          Jwts.builder()
-              .setSubject((userPrincipal.getUsername()))
-              .setIssuedAt(now)
-              .setExpiration(validity)
-              .signWith(SignatureAlgorithm.HS512, jwtSecret)
-              .compact();
+    if (keyRing.isEnabled()) {
+      JwtSigningKey signingKey = keyRing.signingKey();
+      return builder
+          .setHeaderParam(JwsHeader.KEY_ID, signingKey.getKid())
+          .signWith(signingKey.getPrivateKey(), SignatureAlgorithm.ES256)
+          .compact();
+    }
+    return builder.signWith(secretKey, SignatureAlgorithm.HS512).compact();
+  }
 
-      tokenDetailsService.onLoginSuccess(authentication, jwtToken, now);
+  private void addPrincipalClaims(JwtBuilder builder, Authentication authentication) {
+    List<String> roles = new ArrayList<>();
+    if (authentication.getPrincipal() instanceof UserDetailsImpl) {
+      UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
+      for (GrantedAuthority authority : authentication.getAuthorities()) {
+        roles.add(authority.getAuthority());
+      }
 
-      return jwtToken;
+      builder
+          .claim(CLAIM_USER_ID, userDetails.getId())
+          .claim(CLAIM_SOURCE, PrincipalSource.DAO.name());
+      if (userDetails.getCredentialsVersion() != null) {
+        builder.claim(CLAIM_CREDENTIALS_VERSION, userDetails.getCredentialsVersion());
+      }
     } else {
-      UserDetailsImpl userPrincipal = (UserDetailsImpl) authentication.getPrincipal();
+      // The roles of the persistent token saved on sign in, a user by default
+      LinkedHashSet<String> granted = new LinkedHashSet<>();
+      for (GrantedAuthority authority : authentication.getAuthorities()) {
+        granted.add(roleRegistry.getGrantedRole(authority.getAuthority()).getName().name());
+      }
+      if (granted.isEmpty()) {
+        granted.add(ERole.ROLE_USER.name());
+      }
+      roles.addAll(granted);
 
-      return Jwts.builder()
-          .setSubject((userPrincipal.getUsername()))
-          .setIssuedAt(now)
-          .setExpiration(validity)
-          .signWith(SignatureAlgorithm.HS512, jwtSecret)
-          .compact();
+      // The id of the persistent token is not known before the JWT is, it is left to the store
+      builder.claim(CLAIM_SOURCE, PrincipalSource.LDAP.name());
     }
+    builder.claim(CLAIM_ROLES, roles);
   }
 
   /**
@@ -77,7 +242,9 @@ public class JwtUtils {
    * @return the username
    */
   public String getUserNameFromJwtToken(String token) {
-    return Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(token).getBody().getSubject();
+    return parseJwtToken(token)
+        .map(JwtClaims::getUsername)
+        .orElseThrow(() -> new MalformedJwtException("Invalid JWT token"));
   }
 
   /**
@@ -87,21 +254,193 @@ public class JwtUtils {
    * @return true/false of the validation outcome
    */
   public boolean validateJwtToken(String authToken) {
+    return parseJwtToken(authToken).isPresent();
+  }
+
+  /**
+   * Validate the JWT and retrieve its claims. The signature is only verified the first time a JWT
+   * is seen, the claims are then served from a cache until the JWT expires. The revocation is
+   * checked every time. Values that cannot be a JWT issued here are rejected upfront, before any
+   * digest or parsing, and the failures are only logged up to a number per second.
+   *
+   * @param authToken Value to be validated.
+   * @return the {@link JwtClaims} or empty if the JWT is invalid
+   */
+  public Optional<JwtClaims> parseJwtToken(String authToken) {
+    if (authToken == null || authToken.isEmpty()) {
+      reject("empty", "JWT claims string is empty", null);
+      return Optional.empty();
+    }
+    String rejection = preValidator.check(authToken);
+    if (rejection != null) {
+      reject(rejection, "Invalid JWT token: {}", rejection);
+      return Optional.empty();
+    }
+
+    ByteBuffer digest = ByteBuffer.wrap(TokenDigests.sha256(authToken));
+    JwtClaims cached = claimsCache.getIfPresent(digest);
+    if (cached != null) {
+      return notRevoked(cached);
+    }
+
     try {
-      Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(authToken);
-      return true;
+      Claims body =
+          authMetrics.jwtParseTimer().record(() -> jwtParser.parseClaimsJws(authToken).getBody());
+      JwtClaims claims = toJwtClaims(body);
+      claimsCache.put(digest, claims);
+      return notRevoked(claims);
     } catch (SignatureException e) {
-      log.error("Invalid JWT signature: {}", e.getMessage());
+      reject("signature", "Invalid JWT signature: {}", e.getMessage());
     } catch (MalformedJwtException e) {
-      log.error("Invalid JWT token: {}", e.getMessage());
+      reject("malformed", "Invalid JWT token: {}", e.getMessage());
     } catch (ExpiredJwtException e) {
-      log.error("JWT token is expired: {}", e.getMessage());
+      reject("expired", "JWT token is expired: {}", e.getMessage());
     } catch (UnsupportedJwtException e) {
-      log.error("JWT token is unsupported: {}", e.getMessage());
+      reject("unsupported", "JWT token is unsupported: {}", e.getMessage());
     } catch (IllegalArgumentException e) {
-      log.error("JWT claims string is empty: {}", e.getMessage());
+      reject("empty", "JWT claims string is empty: {}", e.getMessage());
+    }
+
+    return Optional.empty();
+  }
+
+  /**
+   * Count the rejected JWT and log it, unless too many were logged in the last second.
+   *
+   * @param reason the reason of the rejection
+   * @param format the log message
+   * @param detail the log argument
+   */
+  private void reject(String reason, String format, String detail) {
+    authMetrics.jwtValidationFailure(reason);
+    if (failureLog.tryAcquire()) {
+      log.error(format, detail);
+    }
+  }
+
+  /**
+   * Take a permit to log a failure to authenticate a request. The permits are shared with the
+   * validation failures, both are held back under a flood of invalid requests.
+   *
+   * @return true if the failure may be logged, false if held back
+   */
+  boolean tryLogFailure() {
+    return failureLog.tryAcquire();
+  }
+
+  /** Log the number of failure logs held back, even when no failure follows them. */
+  @Scheduled(fixedDelay = 1000)
+  public void flushFailureLog() {
+    failureLog.flush();
+  }
+
+  /**
+   * Resolve the key of the JWT from its header: the ES256 key of its kid, or the secret for the
+   * HS512 JWT issued without kid. The algorithm must match the key, a JWT cannot pick the secret
+   * by claiming another algorithm.
+   *
+   * @param header the header of the JWT, not verified yet
+   * @return the {@link Key}
+   */
+  private Key resolveKey(JwsHeader header) {
+    String kid = header.getKeyId();
+    if (kid == null) {
+      if (!SignatureAlgorithm.HS512.getValue().equals(header.getAlgorithm())) {
+        throw new UnsupportedJwtException("Unexpected algorithm " + header.getAlgorithm());
+      }
+      return secretKey;
     }
 
-    return false;
+    if (!SignatureAlgorithm.ES256.getValue().equals(header.getAlgorithm())) {
+      throw new UnsupportedJwtException("Unexpected algorithm " + header.getAlgorithm());
+    }
+    JwtSigningKey key = keyRing.findKey(kid);
+    if (key == null) {
+      throw new SignatureException("Unknown key id " + kid);
+    }
+    return key.getPublicKey();
+  }
+
+  @SuppressWarnings("unchecked")
+  private JwtClaims toJwtClaims(Claims body) {
+    String source = body.get(CLAIM_SOURCE, String.class);
+    return new JwtClaims(
+        body.getSubject(),
+        body.getIssuedAt(),
+        body.getExpiration(),
+        body.getId(),
+        body.get(CLAIM_USER_ID, Long.class),
+        (List<String>) body.get(CLAIM_ROLES, List.class),
+        source != null ? PrincipalSource.valueOf(source) : null,
+        body.get(CLAIM_CREDENTIALS_VERSION, Long.class));
+  }
+
+  private Optional<JwtClaims> notRevoked(JwtClaims claims) {
+    if (revocationList.isRevoked(claims.getId())) {
+      reject("revoked", "JWT token is revoked: {}", claims.getId());
+      return Optional.empty();
+    }
+    return Optional.of(claims);
+  }
+
+  /**
+   * Revoke the JWT until its expiration. The JWT issued without id cannot be revoked, they stay
+   * valid until they expire.
+   *
+   * @param authToken Value to be revoked.
+   */
+  public void revokeJwtToken(String authToken) {
+    parseJwtToken(authToken)
+        .ifPresent(claims -> revocationList.revoke(claims.getId(), claims.getExpiration()));
+  }
+
+  /**
+   * Parse the JWT and obtain the Authorization header by removing Bearer prefix.
+   *
+   * @param request the {@link HttpServletRequest} contains the client's request
+   * @return the stripped header or null if Authorization header does not exists
+   */
+  public String parseJwt(HttpServletRequest request) {
+    return parseJwt(request.getHeader("Authorization"));
+  }
+
+  /**
+   * Obtain the JWT of the given Authorization header by removing Bearer prefix. The prefix is
+   * matched in place, the JWT is the only string allocated.
+   *
+   * @param headerAuth the Authorization header, null if the request has none
+   * @return the stripped header or null if there is no Bearer JWT
+   */
+  public String parseJwt(String headerAuth) {
+    if (headerAuth != null && headerAuth.startsWith(BEARER_PREFIX)) {
+      return headerAuth.substring(BEARER_PREFIX.length());
+    }
+
+    return null;
+  }
+
+  /** Expires the cached claims at the expiration of the JWT they were parsed from. */
+  private class JwtClaimsExpiry implements Expiry<ByteBuffer, JwtClaims> {
+
+    @Override
+    public long expireAfterCreate(ByteBuffer key, JwtClaims claims, long currentTime) {
+      long ttlMs =
+          claims.getExpiration() != null
+              ? claims.getExpiration().getTime() - clock.millis()
+              : jwtExpirationMs;
+      return TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(ttlMs, jwtExpirationMs)));
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        ByteBuffer key, JwtClaims claims, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+
+    @Override
+    public long expireAfterRead(
+        ByteBuffer key, JwtClaims claims, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
   }
 }
@@ -0,0 +1,69 @@
+package com.example.login.security.jwt;
+
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+/**
+ * Implementation of {@link WebFilter} to parse and validate JWT, loading {@link UserDetails},
+ * checking Authorization. The reactive counterpart of {@link AuthTokenFilter}: the authentication
+ * is not held by the thread but by the subscriber context, see {@link
+ * ReactiveSecurityContextHolder}.
+ *
+ * <p>Not a bean, a {@link WebFilter} bean would also run outside of the security chain.
+ *
+ * @author sy
+ */
+@Slf4j
+public class ReactiveAuthTokenFilter implements WebFilter {
+
+  private final JwtUtils jwtUtils;
+
+  private final ReactiveUserDetailsVerificationUtils userDetailsVerificationUtils;
+
+  public ReactiveAuthTokenFilter(
+      JwtUtils jwtUtils, ReactiveUserDetailsVerificationUtils userDetailsVerificationUtils) {
+    this.jwtUtils = jwtUtils;
+    this.userDetailsVerificationUtils = userDetailsVerificationUtils;
+  }
+
+  /**
+   * Filter the exchange to obtain the {@link UserDetails} and set them in the context of the rest
+   * of the chain, read them back with {@code ReactiveSecurityContextHolder.getContext()}.
+   *
+   * @param exchange the current server exchange
+   * @param chain provides a way to delegate to the next filter
+   * @return the completion of the request processing
+   */
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    String jwt =
+        jwtUtils.parseJwt(exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION));
+    // If the request has JWT, validate it and parse the username
+    Optional<JwtClaims> claims = jwt != null ? jwtUtils.parseJwtToken(jwt) : Optional.empty();
+    if (claims.isEmpty()) {
+      return chain.filter(exchange);
+    }
+
+    // Verify against the store the username belongs to, or the claims in the stateless mode
+    return userDetailsVerificationUtils
+        .verify(claims.get(), jwt)
+        .map(ReactiveSecurityContextHolder::withAuthentication)
+        .onErrorResume(
+            e -> {
+              if (jwtUtils.tryLogFailure()) {
+                log.error("Cannot set user authentication: {}", e.getMessage());
+              }
+              return Mono.empty();
+            })
+        .defaultIfEmpty(Context.empty())
+        .flatMap(context -> chain.filter(exchange).contextWrite(context));
+  }
+}
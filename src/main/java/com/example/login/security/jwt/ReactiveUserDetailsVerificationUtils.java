@@ -0,0 +1,210 @@
+package com.example.login.security.jwt;
+
+import com.example.login.metrics.AuthMetrics;
+import com.example.login.repository.ReactivePersistentTokenRepository;
+import com.example.login.repository.ReactiveUserRepository;
+import com.example.login.security.services.PersistentTokenStore;
+import com.example.login.security.services.PrincipalSource;
+import com.example.login.security.services.PrincipalSourceResolver;
+import com.example.login.security.services.ReactiveUserDetailsServiceImpl;
+import com.example.login.security.services.TokenDetailsImpl;
+import com.example.login.security.services.TokenDetailsServiceImpl;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.web.authentication.rememberme.CookieTheftException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Provides the UserDetails verification of the reactive profile, the same as {@link
+ * UserDetailsVerificationUtils} without blocking: the users and the persistent tokens are read
+ * through R2DBC, the directory searches and the data store writes run on the bounded elastic
+ * scheduler.
+ *
+ * @author sy
+ */
+@Component
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveUserDetailsVerificationUtils {
+
+  @Value("${examplelogin.app.stateless.enabled:false}")
+  private boolean statelessEnabled;
+
+  @Autowired private UserDetailsVerificationUtils userDetailsVerificationUtils;
+
+  @Autowired private ReactiveUserDetailsServiceImpl userDetailsService;
+
+  @Autowired private ReactiveUserRepository userRepository;
+
+  @Autowired private ReactivePersistentTokenRepository tokenRepository;
+
+  @Autowired private TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired private PrincipalSourceResolver principalSourceResolver;
+
+  @Autowired private PersistentTokenStore tokenStore;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  /** Runs the blocking directory searches off the event loop. */
+  private final Executor boundedElastic = task -> Schedulers.boundedElastic().schedule(task);
+
+  /**
+   * Verify the principal of the given jwt, see {@link
+   * UserDetailsVerificationUtils#verify(JwtClaims, String)}.
+   *
+   * @param claims the claims of the jwt, signature already verified
+   * @param jwt the jwt
+   * @return the {@link UsernamePasswordAuthenticationToken}, or an AuthenticationException if the
+   *     principal does not match the jwt
+   */
+  public Mono<UsernamePasswordAuthenticationToken> verify(JwtClaims claims, String jwt) {
+    if (statelessEnabled && claims.getSource() != null && claims.getId() != null) {
+      // Built from the claims on the event loop, only the periodic revalidation reads the blocking
+      // stores
+      return Mono.defer(
+          () ->
+              userDetailsVerificationUtils
+                  .verifyFromClaims(claims, jwt)
+                  .map(Mono::just)
+                  .orElseGet(
+                      () ->
+                          Mono.fromCallable(() -> userDetailsVerificationUtils.verify(claims, jwt))
+                              .subscribeOn(Schedulers.boundedElastic())));
+    }
+
+    String username = claims.getUsername();
+    return Mono.fromFuture(
+            () ->
+                principalSourceResolver.resolve(
+                    username, key -> userRepository.existsByUsername(key).toFuture()))
+        .flatMap(
+            source ->
+                source == PrincipalSource.DAO
+                    ? verifyFromDao(username)
+                    : verifyFromLdap(username, claims.getIssuedAt(), jwt));
+  }
+
+  /**
+   * Find the username from the Dao to obtain the {@link UsernamePasswordAuthenticationToken}.
+   *
+   * @param username Value to search
+   * @return the {@link UsernamePasswordAuthenticationToken}, or an UsernameNotFoundException
+   */
+  public Mono<UsernamePasswordAuthenticationToken> verifyFromDao(String username) {
+    return timed(
+        PrincipalSource.DAO,
+        userDetailsService
+            .loadUserByUsername(username)
+            .map(
+                userDetails ->
+                    new UsernamePasswordAuthenticationToken(
+                        userDetails, null, userDetails.getAuthorities())));
+  }
+
+  /**
+   * Find the username from the Ldap to obtain the {@link UsernamePasswordAuthenticationToken}, see
+   * {@link UserDetailsVerificationUtils#verifyFromLdap}.
+   *
+   * @param username Value to search
+   * @param issuedAt the issue date of the jwt
+   * @param jwt the jwt the username was parsed from
+   * @return the {@link UsernamePasswordAuthenticationToken}, or an AuthenticationException
+   */
+  public Mono<UsernamePasswordAuthenticationToken> verifyFromLdap(
+      String username, Date issuedAt, String jwt) {
+    return timed(
+        PrincipalSource.LDAP,
+        Mono.fromFuture(() -> tokenDetailsService.existsInLdap(username, boundedElastic))
+            .filter(Boolean::booleanValue)
+            .flatMap(exists -> findToken(username, false))
+            .switchIfEmpty(Mono.error(() -> notFound(username)))
+            .flatMap(
+                token ->
+                    tokenDetailsService.compareSeries(jwt, token)
+                        ? Mono.just(token)
+                        // The series may have been rotated since it was loaded in memory
+                        : findToken(username, true)
+                            .switchIfEmpty(Mono.error(() -> notFound(username)))
+                            .flatMap(reloaded -> checkReloaded(reloaded, issuedAt, jwt)))
+            .map(
+                token ->
+                    new UsernamePasswordAuthenticationToken(token, null, token.getAuthorities())));
+  }
+
+  private Mono<TokenDetailsImpl> checkReloaded(TokenDetailsImpl token, Date issuedAt, String jwt) {
+    // We have a match for this jwt/series combination
+    if (tokenDetailsService.compareSeries(jwt, token)) {
+      return Mono.just(token);
+    }
+
+    if (UserDetailsVerificationUtils.isIssuedAfter(issuedAt, token.getLastUsed())) {
+      return Mono.error(
+          new AuthenticationServiceException(
+              "Error: The token of the jwt is not saved yet, try again."));
+    }
+
+    // Token doesn't match series value. Delete all logins for this user and throw
+    // an exception to warn them.
+    return Mono.fromRunnable(() -> tokenDetailsService.deleteToken(token.getUsername()))
+        .subscribeOn(Schedulers.boundedElastic())
+        .then(
+            Mono.error(
+                new CookieTheftException(
+                    "Invalid token (Series/token) mismatch."
+                        + " Implies previous cookie theft attack.")));
+  }
+
+  /**
+   * Find the token of the given username in memory, otherwise in the data store through R2DBC.
+   *
+   * @param username Value to search
+   * @param reload whether to skip the tokens in memory already written to the data store
+   * @return the {@link TokenDetailsImpl} (or empty)
+   */
+  private Mono<TokenDetailsImpl> findToken(String username, boolean reload) {
+    return Mono.justOrEmpty(tokenStore.findInMemory(username, reload))
+        .switchIfEmpty(
+            Mono.defer(
+                () ->
+                    tokenRepository
+                        .findCredentialsByUsername(username)
+                        .collectList()
+                        .filter(rows -> !rows.isEmpty())
+                        .map(TokenDetailsImpl::build)
+                        .doOnSuccess(
+                            token -> {
+                              if (token != null) {
+                                tokenStore.cache(token);
+                              } else if (reload) {
+                                tokenStore.evict(Collections.singleton(username));
+                              }
+                            })));
+  }
+
+  private <T> Mono<T> timed(PrincipalSource source, Mono<T> verification) {
+    return Mono.defer(
+        () -> {
+          long start = System.nanoTime();
+          return verification.doFinally(
+              signal ->
+                  authMetrics
+                      .verifyTimer(source)
+                      .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+  }
+
+  private static UsernameNotFoundException notFound(String username) {
+    return new UsernameNotFoundException("User Not Found with username: " + username);
+  }
+}
@@ -0,0 +1,65 @@
+package com.example.login.security.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Provides the SHA-256 digest of tokens, used to key caches without holding on to the raw token.
+ *
+ * @author sy
+ */
+public final class TokenDigests {
+
+  private static final ThreadLocal<MessageDigest> SHA_256 =
+      ThreadLocal.withInitial(
+          () -> {
+            try {
+              return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+              throw new IllegalStateException("SHA-256 is not supported by the JVM", e);
+            }
+          });
+
+  /** Length of a fingerprint, 12 bytes i.e. 16 Base64url characters. */
+  private static final int FINGERPRINT_BYTES = 12;
+
+  private TokenDigests() {}
+
+  /**
+   * Compute the SHA-256 digest of the given token.
+   *
+   * @param token Value to digest
+   * @return the 32 bytes digest
+   */
+  public static byte[] sha256(String token) {
+    return sha256(token.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Compute the SHA-256 digest of the given bytes.
+   *
+   * @param bytes Value to digest
+   * @return the 32 bytes digest
+   */
+  public static byte[] sha256(byte[] bytes) {
+    MessageDigest digest = SHA_256.get();
+    digest.reset();
+    return digest.digest(bytes);
+  }
+
+  /**
+   * Compute a short fingerprint of the given value, used to tell whether it changed without
+   * disclosing it.
+   *
+   * @param value Value to fingerprint
+   * @return the unpadded Base64url encoding of the first bytes of its SHA-256 digest
+   */
+  public static String fingerprint(String value) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(Arrays.copyOf(sha256(value), FINGERPRINT_BYTES));
+  }
+}
@@ -1,10 +1,34 @@
 package com.example.login.security.jwt;
 
+import com.example.login.metrics.AuthMetrics;
+import com.example.login.security.services.PersistentTokenStore;
+import com.example.login.security.services.PrincipalSource;
+import com.example.login.security.services.PrincipalSourceResolver;
+import com.example.login.security.services.TokenDetailsImpl;
 import com.example.login.security.services.TokenDetailsServiceImpl;
+import com.example.login.security.services.UserDetailsImpl;
 import com.example.login.security.services.UserDetailsServiceImpl;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.CredentialsExpiredException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.rememberme.CookieTheftException;
@@ -19,10 +43,200 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class UserDetailsVerificationUtils {
 
+  @Value("${examplelogin.app.stateless.enabled:false}")
+  private boolean statelessEnabled;
+
+  @Value("${examplelogin.app.stateless.revalidateMs:60000}")
+  private long revalidateMs;
+
+  @Value("${examplelogin.app.stateless.maximumSize:10000}")
+  private long revalidatedMaximumSize;
+
   @Autowired private UserDetailsServiceImpl userDetailsService;
 
   @Autowired private TokenDetailsServiceImpl tokenDetailsService;
 
+  @Autowired private PrincipalSourceResolver principalSourceResolver;
+
+  @Autowired private PersistentTokenStore tokenStore;
+
+  @Autowired private JwtRevocationList revocationList;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  @Autowired private Ticker ticker;
+
+  /** Id of the principal by jti, of the jwt revalidated against the store within revalidateMs. */
+  private Cache<String, Long> revalidated;
+
+  @PostConstruct
+  void initRevalidatedCache() {
+    revalidated =
+        Caffeine.newBuilder()
+            .maximumSize(revalidatedMaximumSize)
+            .expireAfterWrite(revalidateMs, TimeUnit.MILLISECONDS)
+            .ticker(ticker)
+            .recordStats()
+            .build();
+    authMetrics.monitor(revalidated, "statelessRevalidations");
+  }
+
+  /**
+   * Verify the principal of the given jwt. In the stateless mode, the principal of a jwt carrying
+   * the principal claims is built from them, the store being looked up once per revalidateMs.
+   * Otherwise the store is looked up as by {@link #verify(String, Date, String)}.
+   *
+   * @param claims the claims of the jwt, signature already verified
+   * @param jwt the jwt
+   * @return the {@link UsernamePasswordAuthenticationToken}
+   * @throws AuthenticationException if the principal does not match its claims any more
+   */
+  public UsernamePasswordAuthenticationToken verify(JwtClaims claims, String jwt)
+      throws AuthenticationException {
+    if (!isStateless(claims)) {
+      return verify(claims.getUsername(), claims.getIssuedAt(), jwt);
+    }
+
+    Long id = revalidated.getIfPresent(claims.getId());
+    if (id == null) {
+      // Concurrent requests of the same jwt may each revalidate, the outcome is the same
+      id = revalidate(claims, jwt);
+      revalidated.put(claims.getId(), id);
+    }
+    return fromClaims(claims, jwt, id);
+  }
+
+  /**
+   * Verify the principal of the given jwt from its claims only, as {@link #verify(JwtClaims,
+   * String)} does between two revalidations, without looking up any store.
+   *
+   * @param claims the claims of the jwt, signature already verified
+   * @param jwt the jwt
+   * @return the {@link UsernamePasswordAuthenticationToken}, or empty if the jwt is not stateless
+   *     or due for revalidation
+   */
+  public Optional<UsernamePasswordAuthenticationToken> verifyFromClaims(
+      JwtClaims claims, String jwt) {
+    Long id = isStateless(claims) ? revalidated.getIfPresent(claims.getId()) : null;
+    return id != null ? Optional.of(fromClaims(claims, jwt, id)) : Optional.empty();
+  }
+
+  private boolean isStateless(JwtClaims claims) {
+    return statelessEnabled && claims.getSource() != null && claims.getId() != null;
+  }
+
+  private UsernamePasswordAuthenticationToken fromClaims(JwtClaims claims, String jwt, Long id) {
+    List<GrantedAuthority> authorities = new ArrayList<>(claims.getRoles().size());
+    for (String role : claims.getRoles()) {
+      authorities.add(new SimpleGrantedAuthority(role));
+    }
+
+    UserDetails userDetails;
+    if (claims.getSource() == PrincipalSource.DAO) {
+      userDetails =
+          new UserDetailsImpl(
+              id, claims.getUsername(), null, authorities, claims.getCredentialsVersion());
+    } else {
+      // We use the series as password
+      String series = tokenDetailsService.generateSeriesData(jwt);
+      userDetails = new TokenDetailsImpl(id, claims.getUsername(), series, authorities, null);
+    }
+    return new UsernamePasswordAuthenticationToken(userDetails, null, authorities);
+  }
+
+  /**
+   * Verify the principal of the given jwt against its store, which must still grant the roles of
+   * the claims. A jwt that does not match any more is revoked, its user has to sign in again.
+   *
+   * @param claims the principal claims of the jwt
+   * @param jwt the jwt
+   * @return the id of the principal
+   */
+  private Long revalidate(JwtClaims claims, String jwt) {
+    String username = claims.getUsername();
+    UsernamePasswordAuthenticationToken authentication;
+    try {
+      authentication =
+          claims.getSource() == PrincipalSource.DAO
+              ? verifyFromDao(username)
+              : verifyFromLdap(username, claims.getIssuedAt(), jwt);
+    } catch (AuthenticationServiceException e) {
+      // Not saved yet, the jwt is still valid
+      throw e;
+    } catch (AuthenticationException e) {
+      revocationList.revoke(claims.getId(), claims.getExpiration());
+      throw e;
+    }
+
+    Long id;
+    Long credentialsVersion = null;
+    Object principal = authentication.getPrincipal();
+    if (principal instanceof UserDetailsImpl) {
+      UserDetailsImpl userDetails = (UserDetailsImpl) principal;
+      id = userDetails.getId();
+      credentialsVersion = userDetails.getCredentialsVersion();
+    } else {
+      id = ((TokenDetailsImpl) principal).getId();
+    }
+
+    Set<String> roles = new HashSet<>();
+    for (GrantedAuthority authority : authentication.getAuthorities()) {
+      roles.add(authority.getAuthority());
+    }
+
+    if (!roles.equals(new HashSet<>(claims.getRoles()))
+        || (claims.getUserId() != null && !claims.getUserId().equals(id))
+        || (claims.getCredentialsVersion() != null
+            && !claims.getCredentialsVersion().equals(credentialsVersion))) {
+      revocationList.revoke(claims.getId(), claims.getExpiration());
+      throw new CredentialsExpiredException(
+          "Error: The claims of the jwt are out of date, sign in again.");
+    }
+    return id;
+  }
+
+  /**
+   * Find the username from the store it belongs to (Dao or Ldap) to obtain the {@link
+   * UserDetails}.
+   *
+   * @param username Value to search
+   * @param issuedAt the issue date of the jwt
+   * @param jwt the jwt the username was parsed from
+   * @return the {@link UsernamePasswordAuthenticationToken}
+   * @throws UsernameNotFoundException
+   */
+  public UsernamePasswordAuthenticationToken verify(String username, Date issuedAt, String jwt)
+      throws UsernameNotFoundException {
+    if (principalSourceResolver.resolve(username) == PrincipalSource.DAO) {
+      return verifyFromDao(username);
+    }
+
+    return verifyFromLdap(username, issuedAt, jwt);
+  }
+
+  /**
+   * Load the principals of the given usernames not yet in memory with one query per store, so that
+   * verifying a batch of jwt does not query the stores once per jwt.
+   *
+   * @param usernames Values to load
+   */
+  public void preload(Collection<String> usernames) {
+    List<String> daoUsernames = new ArrayList<>();
+    List<String> ldapUsernames = new ArrayList<>();
+    principalSourceResolver
+        .resolveAll(usernames)
+        .forEach(
+            (username, source) ->
+                (source == PrincipalSource.DAO ? daoUsernames : ldapUsernames).add(username));
+
+    if (!daoUsernames.isEmpty()) {
+      userDetailsService.findAllByUsername(daoUsernames);
+    }
+    if (!ldapUsernames.isEmpty()) {
+      tokenStore.findAllByUsername(ldapUsernames);
+    }
+  }
+
   /**
    * Find the username from the Dao to obtain the {@link UserDetails}.
    *
@@ -32,24 +246,49 @@ public class UserDetailsVerificationUtils {
    */
   public UsernamePasswordAuthenticationToken verifyFromDao(String username)
       throws UsernameNotFoundException {
+    return authMetrics.verifyTimer(PrincipalSource.DAO).record(() -> loadFromDao(username));
+  }
+
+  private UsernamePasswordAuthenticationToken loadFromDao(String username) {
     UserDetails userDetails = userDetailsService.loadUserByUsername(username);
 
     return new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
   }
 
   /**
-   * Find the username from the Ldap to obtain the {@link UserDetails}.
+   * Find the username from the Ldap to obtain the {@link UserDetails}. A jwt issued after the
+   * stored series is the sign in of another node not written yet rather than a theft, it is
+   * rejected until written without deleting the token.
    *
    * @param username Value to search
+   * @param issuedAt the issue date of the jwt
+   * @param jwt the jwt the username was parsed from
    * @return the {@link UsernamePasswordAuthenticationToken}
    * @throws UsernameNotFoundException
    */
-  public UsernamePasswordAuthenticationToken verifyFromLdap(String username, String jwt)
-      throws UsernameNotFoundException {
-    UserDetails tokenUserDetails = tokenDetailsService.loadUserByUsername(username);
+  public UsernamePasswordAuthenticationToken verifyFromLdap(
+      String username, Date issuedAt, String jwt) throws UsernameNotFoundException {
+    return authMetrics
+        .verifyTimer(PrincipalSource.LDAP)
+        .record(() -> loadFromLdap(username, issuedAt, jwt));
+  }
+
+  private UsernamePasswordAuthenticationToken loadFromLdap(
+      String username, Date issuedAt, String jwt) {
+    TokenDetailsImpl tokenUserDetails = tokenDetailsService.loadUserByUsername(username);
+
+    if (!tokenDetailsService.compareSeries(jwt, tokenUserDetails)) {
+      // The series may have been rotated since it was loaded in memory, check the data store
+      tokenUserDetails = tokenDetailsService.reloadUserByUsername(username);
+    }
 
     // We have a match for this jwt/series combination
-    if (!tokenDetailsService.compareSeries(jwt, tokenUserDetails.getPassword())) {
+    if (!tokenDetailsService.compareSeries(jwt, tokenUserDetails)) {
+      if (isIssuedAfter(issuedAt, tokenUserDetails.getLastUsed())) {
+        throw new AuthenticationServiceException(
+            "Error: The token of the jwt is not saved yet, try again.");
+      }
+
       // Token doesn't match series value. Delete all logins for this user and throw
       // an exception to warn them.
       tokenDetailsService.deleteToken(username);
@@ -61,4 +300,18 @@ public class UserDetailsVerificationUtils {
     return new UsernamePasswordAuthenticationToken(
         tokenUserDetails, null, tokenUserDetails.getAuthorities());
   }
+
+  /**
+   * Whether the jwt was issued after the stored series, the issue date of a jwt being truncated to
+   * the second.
+   *
+   * @param issuedAt the issue date of the jwt, null if unknown
+   * @param lastUsed the date of the stored series, null if unknown
+   * @return true/false if issued after
+   */
+  static boolean isIssuedAfter(Date issuedAt, Date lastUsed) {
+    return issuedAt != null
+        && lastUsed != null
+        && issuedAt.getTime() >= TimeUnit.MILLISECONDS.toSeconds(lastUsed.getTime()) * 1000;
+  }
 }
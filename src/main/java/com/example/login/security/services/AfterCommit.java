@@ -0,0 +1,38 @@
+package com.example.login.security.services;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs the invalidations of the caches once the change they follow is committed.
+ *
+ * <p>Invalidated before the commit, a cache would be loaded again by another thread from the row
+ * not committed yet, i.e. the previous one, and keep it until it expires.
+ *
+ * @author sy
+ */
+final class AfterCommit {
+
+  private AfterCommit() {}
+
+  /**
+   * Run the given action once the current transaction commits, right away when there is none. A
+   * rolled back transaction does not run it, the caches still hold the committed rows.
+   *
+   * @param action the invalidation
+   */
+  static void run(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            action.run();
+          }
+        });
+  }
+}
@@ -0,0 +1,96 @@
+package com.example.login.security.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads missing {@link AsyncCache} entries on the calling thread.
+ *
+ * <p>A synchronous Caffeine cache runs its loader inside {@code ConcurrentHashMap.compute}, holding
+ * a monitor for as long as the loader blocks on the database or the directory. That pins a virtual
+ * thread to its carrier. Here only an incomplete future is installed under the monitor, the loader
+ * then runs outside of it while concurrent callers of the same key wait on the future.
+ *
+ * @author sy
+ */
+final class AsyncCaches {
+
+  private AsyncCaches() {}
+
+  /**
+   * Return the value of the given key, loading it on the calling thread when absent. A null value
+   * or a failed load leaves no entry behind.
+   *
+   * @param cache the cache to read
+   * @param key Value to search
+   * @param loader the blocking loader
+   * @return the cached or loaded value (or null)
+   */
+  static <K, V> V get(AsyncCache<K, V> cache, K key, Function<? super K, ? extends V> loader) {
+    CompletableFuture<V> created = new CompletableFuture<>();
+    CompletableFuture<V> future = cache.get(key, (k, executor) -> created);
+
+    if (future == created) {
+      complete(created, () -> loader.apply(key));
+    }
+    return join(future);
+  }
+
+  /**
+   * Return the values of the given keys, loading the absent ones on the calling thread with a
+   * single call of the bulk loader. Keys the loader does not return are left out of the result.
+   *
+   * @param cache the cache to read
+   * @param keys Values to search
+   * @param loader the blocking bulk loader, given the absent keys
+   * @return the cached or loaded values
+   */
+  static <K, V> Map<K, V> getAll(
+      AsyncCache<K, V> cache,
+      Collection<? extends K> keys,
+      Function<? super List<K>, ? extends Map<K, V>> loader) {
+    CompletableFuture<Map<K, V>> created = new CompletableFuture<>();
+    List<K> absent = new ArrayList<>();
+    CompletableFuture<Map<K, V>> future =
+        cache.getAll(
+            keys,
+            (missing, executor) -> {
+              missing.forEach(absent::add);
+              return created;
+            });
+
+    if (!absent.isEmpty()) {
+      complete(created, () -> loader.apply(absent));
+    }
+    return join(future);
+  }
+
+  private static <T> void complete(CompletableFuture<T> future, Supplier<? extends T> loader) {
+    try {
+      future.complete(loader.get());
+    } catch (RuntimeException | Error e) {
+      future.completeExceptionally(e);
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
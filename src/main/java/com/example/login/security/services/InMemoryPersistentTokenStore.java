@@ -0,0 +1,660 @@
+package com.example.login.security.services;
+
+import com.example.login.metrics.AuthMetrics;
+import com.example.login.models.CustomPersistentToken;
+import com.example.login.repository.CustomPersistentTokenRepository;
+import com.example.login.repository.TokenCredentials;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Implementation of {@link PersistentTokenStore} that keeps the tokens in memory, keyed by username
+ * and series, in front of the {@link CustomPersistentTokenRepository}. Reads only reach the
+ * repository for usernames not yet in memory.
+ *
+ * <p>{@link #save(CustomPersistentToken)} commits to the repository first and then applies to
+ * memory. {@link #saveBehind(CustomPersistentToken)} applies to memory right away and queues the
+ * write, a writer loop running from the start to the stop of the context then upserts the queued
+ * tokens, a JDBC batch per transaction. A token
+ * saved behind keeps the id of the token in memory for its username, otherwise it takes an id
+ * allocated in advance from the sequence of the table, idBlockSize at a time.
+ *
+ * <p>The written tokens are cached up to maximumSize and for ttlMs after their last use, then read
+ * again from the repository. The queued tokens are held apart until written, at most
+ * queueCapacity of them queued. A token failing to be written stays held apart and is queued again
+ * after retryBackoffMs, doubled on each failure up to retryMaxBackoffMs.
+ *
+ * @author sy
+ */
+@Component
+@Slf4j
+public class InMemoryPersistentTokenStore implements PersistentTokenStore, SmartLifecycle {
+
+  /**
+   * Below the phase of the web server (DEFAULT_PHASE - 2048), the writer is started before the
+   * requests are served and stopped after the last one.
+   */
+  private static final int WRITER_PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+  /**
+   * Upsert of a queued token and of its roles, as {@link CustomPersistentTokenRepository#upsert}
+   * but without result so that the tokens can be batched. A token deleted since queued, e.g. swept
+   * by another node, is inserted again with its id.
+   */
+  private static final String UPSERT =
+      "with upserted as ("
+          + " insert into persistent_tokens (persistent_tokens_id, username, series, last_used)"
+          + " values (?, ?, ?, ?)"
+          + " on conflict (username) do update"
+          + " set series = excluded.series, last_used = excluded.last_used"
+          + " returning persistent_tokens_id),"
+          + " removed as ("
+          + " delete from token_roles tr using upserted u"
+          + " where tr.persistent_tokens_id = u.persistent_tokens_id"
+          + " and tr.role_id not in (select id from roles where name = any (?)))"
+          + " insert into token_roles (persistent_tokens_id, role_id)"
+          + " select u.persistent_tokens_id, r.id from upserted u, roles r"
+          + " where r.name = any (?)"
+          + " on conflict do nothing";
+
+  /**
+   * Delete of the token of the username of a queued token under another id, the queued token took
+   * an allocated id as its username was not in memory.
+   */
+  private static final String DELETE_REPLACED =
+      "with replaced as ("
+          + " delete from persistent_tokens where username = ? and persistent_tokens_id <> ?"
+          + " returning persistent_tokens_id)"
+          + " delete from token_roles"
+          + " where persistent_tokens_id in (select persistent_tokens_id from replaced)";
+
+  private static final String ALLOCATE_IDS =
+      "select nextval(pg_get_serial_sequence('persistent_tokens', 'persistent_tokens_id'))"
+          + " from generate_series(1, ?)";
+
+  @Value("${examplelogin.app.tokenWriter.queueCapacity:10000}")
+  private int writeQueueCapacity;
+
+  @Value("${examplelogin.app.tokenWriter.batchSize:50}")
+  private int writeBatchSize;
+
+  @Value("${examplelogin.app.tokenWriter.idBlockSize:100}")
+  private int idBlockSize;
+
+  @Value("${examplelogin.app.tokenWriter.retryBackoffMs:1000}")
+  private long retryBackoffMs;
+
+  @Value("${examplelogin.app.tokenWriter.retryMaxBackoffMs:60000}")
+  private long retryMaxBackoffMs;
+
+  @Value("${examplelogin.app.tokenCache.maximumSize:10000}")
+  private long tokenCacheMaximumSize;
+
+  @Value("${examplelogin.app.tokenCache.ttlMs:300000}")
+  private long tokenCacheTtlMs;
+
+  @Autowired private CustomPersistentTokenRepository tokenRepository;
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  @Autowired
+  @Qualifier("persistentTokenWriterExecutor")
+  private AsyncTaskExecutor writerExecutor;
+
+  private TransactionTemplate transactionTemplate;
+
+  private TransactionTemplate readOnlyTransactionTemplate;
+
+  /** Tokens written to the repository by username. */
+  private Cache<String, TokenDetailsImpl> tokensByUsername;
+
+  /** Usernames of the cached tokens by series, an evicted token takes its series along. */
+  private final Map<String, String> usernamesBySeries = new ConcurrentHashMap<>();
+
+  /** Queued tokens by username, the memory is ahead of the repository for them. */
+  private final Map<String, TokenDetailsImpl> pendingTokensByUsername = new ConcurrentHashMap<>();
+
+  /**
+   * Held while draining and writing queued tokens and while removing tokens, a removed token stays
+   * removed and a flush waits for the tokens being written.
+   */
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  /** Signals the writer of the queued tokens. */
+  private final ReentrantLock queueLock = new ReentrantLock();
+
+  private final Condition notEmpty = queueLock.newCondition();
+
+  private BlockingQueue<QueuedToken> writeQueue;
+
+  /** Tokens that failed to be written, queued again once their backoff is over. */
+  private final DelayQueue<QueuedToken> retryQueue = new DelayQueue<>();
+
+  /** Ids allocated from the sequence, taken by the tokens of the usernames not in memory. */
+  private final BlockingQueue<Long> ids = new LinkedBlockingQueue<>();
+
+  private Future<?> writer;
+
+  private volatile boolean running;
+
+  @PostConstruct
+  void init() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    // Read-only transactions run with flush mode MANUAL, nothing is dirty checked nor flushed
+    readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+    readOnlyTransactionTemplate.setReadOnly(true);
+
+    tokensByUsername =
+        Caffeine.newBuilder()
+            .maximumSize(tokenCacheMaximumSize)
+            .expireAfterAccess(tokenCacheTtlMs, TimeUnit.MILLISECONDS)
+            .<String, TokenDetailsImpl>evictionListener(
+                (username, token, cause) ->
+                    usernamesBySeries.remove(token.getPassword(), username))
+            .recordStats()
+            .build();
+    authMetrics.monitor(tokensByUsername, "persistentTokens");
+
+    writeQueue = new ArrayBlockingQueue<>(writeQueueCapacity);
+    ids.addAll(allocateIds());
+  }
+
+  /** Start the writer of the queued tokens on the persistentTokenWriterExecutor. */
+  @Override
+  public void start() {
+    running = true;
+    writer = writerExecutor.submit(this::drainWriteQueue);
+  }
+
+  /** Stop the writer of the queued tokens once its batch is written, then write what is left. */
+  @Override
+  public void stop() {
+    // Not interrupted, that would fail the batch being written
+    running = false;
+    queueLock.lock();
+    try {
+      notEmpty.signal();
+    } finally {
+      queueLock.unlock();
+    }
+    try {
+      writer.get(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      log.error("Failed to stop the persistent token writer: {}", e.toString());
+    }
+
+    // Write what is left on the calling thread
+    flush();
+    if (!retryQueue.isEmpty()) {
+      log.error("Failed to save {} persistent tokens before stopping", retryQueue.size());
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public int getPhase() {
+    return WRITER_PHASE;
+  }
+
+  @Override
+  public Optional<TokenDetailsImpl> findByUsername(String username) {
+    TokenDetailsImpl tokenDetails = get(username);
+    if (tokenDetails != null) {
+      return Optional.of(tokenDetails);
+    }
+
+    return reloadByUsername(username);
+  }
+
+  @Override
+  public Map<String, TokenDetailsImpl> findAllByUsername(Collection<String> usernames) {
+    Map<String, TokenDetailsImpl> tokens = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (String username : usernames) {
+      TokenDetailsImpl tokenDetails = get(username);
+      if (tokenDetails != null) {
+        tokens.put(username, tokenDetails);
+      } else {
+        missing.add(username);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      List<TokenCredentials> rows =
+          execute(
+              "find",
+              readOnlyTransactionTemplate,
+              status -> tokenRepository.findCredentialsByUsernameIn(missing));
+      rows.stream()
+          .collect(Collectors.groupingBy(TokenCredentials::getUsername))
+          .forEach(
+              (username, tokenRows) -> {
+                TokenDetailsImpl tokenDetails = TokenDetailsImpl.build(tokenRows);
+                put(tokenDetails);
+                tokens.put(username, tokenDetails);
+              });
+    }
+    return tokens;
+  }
+
+  @Override
+  public Optional<TokenDetailsImpl> reloadByUsername(String username) {
+    TokenDetailsImpl pending = pendingTokensByUsername.get(username);
+    if (pending != null) {
+      // The repository is behind, memory has the latest token
+      return Optional.of(pending);
+    }
+
+    // Only the needed columns, roles included, in one query and without managed entities
+    List<TokenCredentials> rows =
+        execute(
+            "find",
+            readOnlyTransactionTemplate,
+            status -> tokenRepository.findCredentialsByUsername(username));
+    Optional<TokenDetailsImpl> tokenDetails =
+        rows.isEmpty() ? Optional.empty() : Optional.of(TokenDetailsImpl.build(rows));
+
+    if (tokenDetails.isPresent()) {
+      put(tokenDetails.get());
+    } else {
+      remove(username);
+    }
+    return tokenDetails;
+  }
+
+  @Override
+  public Optional<TokenDetailsImpl> findInMemory(String username, boolean pendingOnly) {
+    return Optional.ofNullable(
+        pendingOnly ? pendingTokensByUsername.get(username) : get(username));
+  }
+
+  @Override
+  public void cache(TokenDetailsImpl tokenDetails) {
+    put(tokenDetails);
+  }
+
+  @Override
+  public TokenDetailsImpl save(CustomPersistentToken token) {
+    Long id = execute("save", transactionTemplate, status -> tokenRepository.upsert(token));
+    token.setId(id);
+    TokenDetailsImpl tokenDetails = TokenDetailsImpl.build(token);
+
+    // Only visible in memory once committed
+    put(tokenDetails);
+    return tokenDetails;
+  }
+
+  @Override
+  public TokenDetailsImpl saveBehind(CustomPersistentToken token) {
+    TokenDetailsImpl previous = get(token.getUsername());
+    // The upsert keeps the id of the username, a username not in memory takes an allocated id and
+    // its token in the repository, if any, is replaced
+    token.setId(previous != null ? previous.getId() : nextId());
+    TokenDetailsImpl tokenDetails = TokenDetailsImpl.build(token);
+    pendingTokensByUsername.put(token.getUsername(), tokenDetails);
+
+    QueuedToken queued = new QueuedToken(token, 0, 0);
+    if (!writeQueue.offer(queued)) {
+      // Queue full, the caller writes it
+      writeAll(Collections.singletonList(queued));
+    } else {
+      queueLock.lock();
+      try {
+        notEmpty.signal();
+      } finally {
+        queueLock.unlock();
+      }
+    }
+    return tokenDetails;
+  }
+
+  @Override
+  public void flush() {
+    List<QueuedToken> batch = new ArrayList<>(writeBatchSize);
+    writeLock.lock();
+    try {
+      // The tokens that failed to be written, once whatever their backoff
+      for (Iterator<QueuedToken> retried = retryQueue.iterator(); retried.hasNext(); ) {
+        batch.add(retried.next());
+        retried.remove();
+      }
+      for (int from = 0; from < batch.size(); from += writeBatchSize) {
+        writeAll(batch.subList(from, Math.min(from + writeBatchSize, batch.size())));
+      }
+      batch.clear();
+
+      while (writeQueue.drainTo(batch, writeBatchSize) > 0) {
+        writeAll(batch);
+        batch.clear();
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void removeBySeries(String series) {
+    writeLock.lock();
+    try {
+      execute("delete", transactionTemplate, status -> tokenRepository.deleteBySeries(series));
+
+      pendingTokensByUsername.values().removeIf(pending -> series.equals(pending.getPassword()));
+      String username = usernamesBySeries.remove(series);
+      if (username != null) {
+        tokensByUsername
+            .asMap()
+            .computeIfPresent(
+                username, (key, current) -> series.equals(current.getPassword()) ? null : current);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void removeByUsername(String username) {
+    writeLock.lock();
+    try {
+      execute(
+          "delete", transactionTemplate, status -> tokenRepository.deleteByUsername(username));
+
+      pendingTokensByUsername.remove(username);
+      remove(username);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void evict(Collection<String> usernames) {
+    writeLock.lock();
+    try {
+      for (String username : usernames) {
+        if (!pendingTokensByUsername.containsKey(username)) {
+          remove(username);
+        }
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void drainWriteQueue() {
+    List<QueuedToken> batch = new ArrayList<>(writeBatchSize);
+    while (running) {
+      try {
+        queueLock.lock();
+        try {
+          if (writeQueue.isEmpty()) {
+            notEmpty.await(1, TimeUnit.SECONDS);
+          }
+        } finally {
+          queueLock.unlock();
+        }
+
+        writeLock.lock();
+        try {
+          writeQueue.drainTo(batch, writeBatchSize);
+          // The tokens that failed to be written and whose backoff is over
+          retryQueue.drainTo(batch, writeBatchSize - batch.size());
+          if (!batch.isEmpty()) {
+            writeAll(batch);
+          }
+        } finally {
+          writeLock.unlock();
+          batch.clear();
+        }
+
+        if (ids.size() < idBlockSize / 2) {
+          allocateAhead();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Upsert the given queued tokens in one transaction and one JDBC batch, skipping the ones
+   * replaced or removed since they were queued. The written tokens move from the pending tokens to
+   * the cached ones. When the batch fails its tokens are written one at a time, a token failing on
+   * its own stays pending and is queued again after a backoff.
+   *
+   * @param tokens the queued tokens
+   */
+  private void writeAll(List<QueuedToken> tokens) {
+    writeLock.lock();
+    try {
+      List<QueuedToken> current =
+          tokens.stream().filter(queued -> isPending(queued.token)).collect(Collectors.toList());
+      if (current.isEmpty()) {
+        return;
+      }
+
+      List<QueuedToken> written = new ArrayList<>(current.size());
+      try {
+        upsertAll(current);
+        written.addAll(current);
+      } catch (Exception e) {
+        if (current.size() == 1) {
+          retryLater(current.get(0), e);
+        } else {
+          // One failing token fails the whole batch
+          log.warn("Failed to save a batch of persistent tokens, saving them one at a time");
+          for (QueuedToken queued : current) {
+            try {
+              upsertAll(Collections.singletonList(queued));
+              written.add(queued);
+            } catch (Exception tokenFailure) {
+              retryLater(queued, tokenFailure);
+            }
+          }
+        }
+      }
+
+      for (QueuedToken queued : written) {
+        CustomPersistentToken token = queued.token;
+        TokenDetailsImpl pending = pendingTokensByUsername.get(token.getUsername());
+        if (pending != null && token.getSeries().equals(pending.getPassword())) {
+          // Cached before no longer pending, it is in memory all along. A token saved behind
+          // meanwhile stays pending.
+          put(pending);
+          pendingTokensByUsername.remove(token.getUsername(), pending);
+        }
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void upsertAll(List<QueuedToken> queued) {
+    List<CustomPersistentToken> tokens =
+        queued.stream().map(token -> token.token).collect(Collectors.toList());
+    execute(
+        "saveBatch",
+        transactionTemplate,
+        status -> {
+          jdbcTemplate.batchUpdate(
+              DELETE_REPLACED,
+              tokens,
+              tokens.size(),
+              (ps, token) -> {
+                ps.setString(1, token.getUsername());
+                ps.setLong(2, token.getId());
+              });
+          return jdbcTemplate.batchUpdate(
+              UPSERT,
+              tokens,
+              tokens.size(),
+              (ps, token) -> {
+                Object[] roles = CustomPersistentTokenRepository.roleNames(token).toArray();
+                ps.setLong(1, token.getId());
+                ps.setString(2, token.getUsername());
+                ps.setString(3, token.getSeries());
+                ps.setTimestamp(4, new Timestamp(token.getLast_used().getTime()));
+                ps.setArray(5, ps.getConnection().createArrayOf("varchar", roles));
+                ps.setArray(6, ps.getConnection().createArrayOf("varchar", roles));
+              });
+        });
+  }
+
+  /**
+   * Queue again the given token after a backoff doubling with each failed attempt. It stays
+   * pending, served from memory until written.
+   *
+   * @param queued the token that failed to be written
+   * @param failure the cause of the failure
+   */
+  private void retryLater(QueuedToken queued, Exception failure) {
+    authMetrics.tokenWriteFailure();
+    int attempts = queued.attempts + 1;
+    long backoffMs = Math.min(retryMaxBackoffMs, retryBackoffMs << Math.min(attempts - 1, 20));
+    log.error(
+        "Failed to save the persistent token of {}, retrying in {}ms: {}",
+        queued.token.getUsername(),
+        backoffMs,
+        NestedExceptionUtils.getMostSpecificCause(failure).getMessage());
+    retryQueue.add(
+        new QueuedToken(
+            queued.token, attempts, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs)));
+  }
+
+  /**
+   * Take an allocated id, allocating a block on the calling thread when a burst of sign ins took
+   * them faster than the writer allocates them.
+   *
+   * @return the id
+   */
+  private long nextId() {
+    Long id = ids.poll();
+    if (id != null) {
+      return id;
+    }
+
+    List<Long> block = allocateIds();
+    ids.addAll(block.subList(1, block.size()));
+    return block.get(0);
+  }
+
+  private void allocateAhead() {
+    try {
+      ids.addAll(allocateIds());
+    } catch (Exception e) {
+      // Allocated by the sign ins meanwhile
+      log.error("Failed to allocate persistent token ids: {}", e.getMessage());
+    }
+  }
+
+  private List<Long> allocateIds() {
+    return authMetrics
+        .tokenRepositoryTimer("allocateIds")
+        .record(() -> jdbcTemplate.queryForList(ALLOCATE_IDS, Long.class, idBlockSize));
+  }
+
+  private boolean isPending(CustomPersistentToken token) {
+    TokenDetailsImpl pending = pendingTokensByUsername.get(token.getUsername());
+    return pending != null && token.getSeries().equals(pending.getPassword());
+  }
+
+  /**
+   * Execute the given repository operation in a transaction, timing it.
+   *
+   * @param operation the operation name (find, save, saveBatch, delete, allocateIds)
+   * @param template the template of the transaction, read-only or not
+   * @param action the repository operation
+   * @return the result of the operation
+   */
+  private <T> T execute(
+      String operation, TransactionTemplate template, TransactionCallback<T> action) {
+    return authMetrics.tokenRepositoryTimer(operation).record(() -> template.execute(action));
+  }
+
+  private TokenDetailsImpl get(String username) {
+    TokenDetailsImpl pending = pendingTokensByUsername.get(username);
+    return pending != null ? pending : tokensByUsername.getIfPresent(username);
+  }
+
+  private void put(TokenDetailsImpl tokenDetails) {
+    TokenDetailsImpl previous =
+        tokensByUsername.asMap().put(tokenDetails.getUsername(), tokenDetails);
+    if (previous != null && !previous.getPassword().equals(tokenDetails.getPassword())) {
+      usernamesBySeries.remove(previous.getPassword());
+    }
+    usernamesBySeries.put(tokenDetails.getPassword(), tokenDetails.getUsername());
+  }
+
+  private void remove(String username) {
+    TokenDetailsImpl previous = tokensByUsername.asMap().remove(username);
+    if (previous != null) {
+      usernamesBySeries.remove(previous.getPassword());
+    }
+  }
+
+  /** A token queued for the writer, with its failed attempts. */
+  @AllArgsConstructor
+  private static class QueuedToken implements Delayed {
+    private final CustomPersistentToken token;
+
+    private final int attempts;
+
+    /** The {@link System#nanoTime()} from which it may be written again, 0 when not failed. */
+    private final long retryAtNanos;
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(retryAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.example.login.security.services;
+
+import com.example.login.models.CustomPersistentToken;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Store of the {@link CustomPersistentToken} issued to the LDAP users, looked up on every request
+ * of these users to verify the series of their jwt.
+ *
+ * @author sy
+ */
+public interface PersistentTokenStore {
+
+  /**
+   * Find the token details of the given username.
+   *
+   * @param username Value to search
+   * @return the {@link TokenDetailsImpl} (or empty instance)
+   */
+  Optional<TokenDetailsImpl> findByUsername(String username);
+
+  /**
+   * Find the token details of the given usernames.
+   *
+   * @param usernames Values to search
+   * @return the {@link TokenDetailsImpl} by username, without the usernames not found
+   */
+  Map<String, TokenDetailsImpl> findAllByUsername(Collection<String> usernames);
+
+  /**
+   * Find the token details of the given username, bypassing any copy held in memory.
+   *
+   * @param username Value to search
+   * @return the {@link TokenDetailsImpl} (or empty instance)
+   */
+  Optional<TokenDetailsImpl> reloadByUsername(String username);
+
+  /**
+   * Find the token details of the given username held in memory, without reaching the data store.
+   * Used by the callers reading the data store on their own, e.g. without blocking.
+   *
+   * @param username Value to search
+   * @param pendingOnly whether to only return a token not written to the data store yet, as
+   *     {@link #reloadByUsername(String)} would
+   * @return the {@link TokenDetailsImpl} (or empty instance)
+   */
+  Optional<TokenDetailsImpl> findInMemory(String username, boolean pendingOnly);
+
+  /**
+   * Hold in memory the given token details, read from the data store by the caller.
+   *
+   * @param tokenDetails Object to hold
+   */
+  void cache(TokenDetailsImpl tokenDetails);
+
+  /**
+   * Save the given token, replacing the token of its username.
+   *
+   * @param token Object to save
+   * @return the {@link TokenDetailsImpl} of the saved token
+   */
+  TokenDetailsImpl save(CustomPersistentToken token);
+
+  /**
+   * Save the given token, replacing the token of its username, visible right away but written to
+   * the data store asynchronously. The token keeps the id of the token of its username, if known,
+   * and is given a new one otherwise.
+   *
+   * @param token Object to save
+   * @return the {@link TokenDetailsImpl} of the token
+   */
+  TokenDetailsImpl saveBehind(CustomPersistentToken token);
+
+  /**
+   * Write the tokens saved behind and not written yet on the calling thread, the ones that failed
+   * to be written included.
+   */
+  void flush();
+
+  /**
+   * Remove the token of the given series.
+   *
+   * @param series Value to remove
+   */
+  void removeBySeries(String series);
+
+  /**
+   * Remove the token of the given username.
+   *
+   * @param username Value to remove
+   */
+  void removeByUsername(String username);
+
+  /**
+   * Forget the tokens of the given usernames held in memory, once deleted from the data store by
+   * other means. Tokens not yet written to the data store are kept.
+   *
+   * @param usernames Values to evict
+   */
+  void evict(Collection<String> usernames);
+}
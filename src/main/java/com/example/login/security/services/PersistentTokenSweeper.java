@@ -0,0 +1,149 @@
+package com.example.login.security.services;
+
+import com.example.login.metrics.AuthMetrics;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Deletes the persistent tokens whose jwt has expired, i.e. last used more than jwtExpirationMs
+ * ago, in batches walking the (last_used, persistent_tokens_id) index.
+ *
+ * <p>Every node schedules the sweep, the one holding the PostgreSQL advisory lock runs it and the
+ * others skip it. The tokens saved behind on the sweeping node are written first, a sign in not
+ * written yet is not swept with the expired token it replaces. The ones of the other nodes are
+ * inserted again with their id by their writer.
+ *
+ * @author sy
+ */
+@Component
+@Slf4j
+public class PersistentTokenSweeper {
+
+  /** Key of the advisory lock held while sweeping. */
+  private static final long SWEEP_LOCK_KEY = 0x746f6b656e73L;
+
+  private static final String DELETE_EXPIRED_BATCH =
+      "with expired as ("
+          + " select persistent_tokens_id, last_used from persistent_tokens"
+          + " where last_used < ? and (last_used, persistent_tokens_id) > (?, ?)"
+          + " order by last_used, persistent_tokens_id limit ?),"
+          + " deleted as ("
+          + " delete from persistent_tokens"
+          + " where persistent_tokens_id in (select persistent_tokens_id from expired)"
+          // Rotated since selected
+          + " and last_used < ?"
+          + " returning persistent_tokens_id, username),"
+          + " deleted_roles as ("
+          + " delete from token_roles"
+          + " where persistent_tokens_id in (select persistent_tokens_id from deleted))"
+          + " select e.persistent_tokens_id, e.last_used, d.username"
+          + " from expired e left join deleted d using (persistent_tokens_id)";
+
+  @Value("${examplelogin.app.jwtExpirationMs}")
+  private int jwtExpirationMs;
+
+  @Value("${examplelogin.app.tokenSweeper.batchSize:1000}")
+  private int batchSize;
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  @Autowired private PersistentTokenStore tokenStore;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  /** Sweep the expired tokens, unless another node is already sweeping. */
+  @Scheduled(
+      initialDelayString = "${examplelogin.app.tokenSweeper.initialDelayMs:60000}",
+      fixedDelayString = "${examplelogin.app.tokenSweeper.intervalMs:600000}")
+  public void sweep() {
+    try {
+      // The advisory lock belongs to the session, hold on to the connection until released
+      jdbcTemplate.execute(
+          (ConnectionCallback<Void>)
+              connection -> {
+                JdbcTemplate session =
+                    new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+
+                if (!session.queryForObject(
+                    "select pg_try_advisory_lock(?)", Boolean.class, SWEEP_LOCK_KEY)) {
+                  log.debug("Expired persistent tokens are being swept by another node");
+                  return null;
+                }
+
+                try {
+                  tokenStore.flush();
+                  authMetrics.tokenSweepTimer().record(() -> deleteExpired(session));
+                } finally {
+                  session.queryForObject(
+                      "select pg_advisory_unlock(?)", Boolean.class, SWEEP_LOCK_KEY);
+                }
+                return null;
+              });
+    } catch (Exception e) {
+      log.error("Failed to sweep expired persistent tokens: {}", e.getMessage());
+    }
+  }
+
+  private void deleteExpired(JdbcTemplate session) {
+    Timestamp cutoff = new Timestamp(System.currentTimeMillis() - jwtExpirationMs);
+    Timestamp lastUsed = new Timestamp(0);
+    long lastId = 0;
+    int purged = 0;
+
+    int selected;
+    do {
+      List<ExpiredToken> batch =
+          session.query(
+              DELETE_EXPIRED_BATCH,
+              (rs, rowNum) ->
+                  new ExpiredToken(rs.getLong(1), rs.getTimestamp(2), rs.getString(3)),
+              cutoff,
+              lastUsed,
+              lastId,
+              batchSize,
+              cutoff);
+      selected = batch.size();
+
+      List<String> usernames = new ArrayList<>();
+      for (ExpiredToken token : batch) {
+        if (token.username != null) {
+          usernames.add(token.username);
+        }
+        // Keyset of the next batch
+        int order = token.lastUsed.compareTo(lastUsed);
+        if (order > 0 || (order == 0 && token.id > lastId)) {
+          lastUsed = token.lastUsed;
+          lastId = token.id;
+        }
+      }
+
+      tokenStore.evict(usernames);
+      authMetrics.tokensPurged(usernames.size());
+      purged += usernames.size();
+    } while (selected == batchSize);
+
+    if (purged > 0) {
+      log.info("Swept {} expired persistent tokens", purged);
+    }
+  }
+
+  @AllArgsConstructor
+  private static class ExpiredToken {
+    private final long id;
+
+    private final Timestamp lastUsed;
+
+    /** Null when rotated since selected, i.e. not deleted. */
+    private final String username;
+  }
+}
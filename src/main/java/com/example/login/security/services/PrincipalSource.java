@@ -0,0 +1,13 @@
+package com.example.login.security.services;
+
+/**
+ * Stores a principal can be verified against.
+ *
+ * @author sy
+ */
+public enum PrincipalSource {
+  /** The users table, see {@link UserDetailsServiceImpl}. */
+  DAO,
+  /** Active Directory and the persistent tokens, see {@link TokenDetailsServiceImpl}. */
+  LDAP
+}
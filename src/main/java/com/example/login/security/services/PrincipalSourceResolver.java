@@ -0,0 +1,118 @@
+package com.example.login.security.services;
+
+import com.example.login.metrics.AuthMetrics;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers which {@link PrincipalSource} a username belongs to, so that users not found in the
+ * users table (Active Directory users) go straight to the LDAP verification instead of paying for
+ * a failed users table lookup on every request.
+ *
+ * @author sy
+ */
+@Component
+public class PrincipalSourceResolver {
+
+  @Value("${examplelogin.app.principalSourceCache.maximumSize:10000}")
+  private long maximumSize;
+
+  @Value("${examplelogin.app.principalSourceCache.ttlMs:60000}")
+  private long ttlMs;
+
+  @Autowired private UserDetailsServiceImpl userDetailsService;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  private AsyncCache<String, PrincipalSource> sources;
+
+  @PostConstruct
+  void initSourceCache() {
+    sources =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+            .recordStats()
+            .buildAsync();
+    authMetrics.monitor(sources.synchronous(), "principalSources");
+  }
+
+  /**
+   * Resolve the {@link PrincipalSource} of the given username, users not found in the users table
+   * are assumed to come from LDAP.
+   *
+   * @param username Value to resolve
+   * @return the {@link PrincipalSource}
+   */
+  public PrincipalSource resolve(String username) {
+    return AsyncCaches.get(
+        sources,
+        username,
+        key ->
+            userDetailsService.findByUsername(key).isPresent()
+                ? PrincipalSource.DAO
+                : PrincipalSource.LDAP);
+  }
+
+  /**
+   * Same as {@link #resolve(String)} without blocking, a username not cached being looked up in
+   * the users table by the given function.
+   *
+   * @param username Value to resolve
+   * @param lookup whether the username is found in the users table, once known
+   * @return the {@link PrincipalSource}, once known
+   */
+  public CompletableFuture<PrincipalSource> resolve(
+      String username, Function<String, CompletableFuture<Boolean>> lookup) {
+    return sources.get(
+        username,
+        (key, executor) ->
+            lookup
+                .apply(key)
+                .thenApply(found -> found ? PrincipalSource.DAO : PrincipalSource.LDAP));
+  }
+
+  /**
+   * Resolve the {@link PrincipalSource} of the given usernames, the ones not cached are looked up
+   * in the users table with a single query.
+   *
+   * @param usernames Values to resolve
+   * @return the {@link PrincipalSource} by username
+   */
+  public Map<String, PrincipalSource> resolveAll(Collection<String> usernames) {
+    return AsyncCaches.getAll(
+        sources,
+        usernames,
+        missing -> {
+          Set<String> daoUsernames = userDetailsService.findAllByUsername(missing).keySet();
+
+          Map<String, PrincipalSource> resolved = new HashMap<>();
+          for (String username : missing) {
+            resolved.put(
+                username,
+                daoUsernames.contains(username) ? PrincipalSource.DAO : PrincipalSource.LDAP);
+          }
+          return resolved;
+        });
+  }
+
+  /**
+   * Forget the {@link PrincipalSource} of the given username.
+   *
+   * @param username Value to evict
+   */
+  public void evict(String username) {
+    sources.synchronous().invalidate(username);
+  }
+}
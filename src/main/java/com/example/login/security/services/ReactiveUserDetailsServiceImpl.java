@@ -0,0 +1,86 @@
+package com.example.login.security.services;
+
+import com.example.login.repository.ReactiveUserRepository;
+import com.example.login.repository.UserCredentials;
+import java.util.concurrent.CompletableFuture;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.security.core.userdetails.ReactiveUserDetailsPasswordService;
+import org.springframework.security.core.userdetails.ReactiveUserDetailsService;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * Implementation of {@link ReactiveUserDetailsService} for the reactive profile. It provides the
+ * same {@link UserDetailsImpl} as {@link UserDetailsServiceImpl}, read through the {@link
+ * ReactiveUserRepository} without blocking.
+ *
+ * <p>The {@link UserDetailsImpl} share the cache of {@link UserDetailsServiceImpl}, evicted by the
+ * JPA entity listener and by the writes of the {@link ReactiveUserRepository} alike.
+ *
+ * @author sy
+ */
+@Service
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveUserDetailsServiceImpl
+    implements ReactiveUserDetailsService, ReactiveUserDetailsPasswordService {
+
+  @Autowired private ReactiveUserRepository userRepository;
+
+  @Autowired private UserDetailsServiceImpl userDetailsService;
+
+  /**
+   * Build the {@link UserDetailsImpl} of the user from its {@link UserCredentials}, when not
+   * cached.
+   *
+   * @param username Value to search
+   * @return the {@link UserDetailsImpl} (or empty)
+   */
+  @Override
+  public Mono<UserDetails> findByUsername(String username) {
+    // The load is shared by the concurrent requests of the username, none of them cancels it
+    return Mono.<UserDetails>fromFuture(
+        () -> userDetailsService.findByUsername(username, this::loadFromRepository), true);
+  }
+
+  /**
+   * Same as {@link #findByUsername(String)} but failing when the user is not found.
+   *
+   * @param username Value to search
+   * @return the {@link UserDetailsImpl}
+   */
+  public Mono<UserDetails> loadUserByUsername(String username) {
+    return findByUsername(username)
+        .switchIfEmpty(
+            Mono.error(
+                () -> new UsernameNotFoundException("User Not Found with username: " + username)));
+  }
+
+  /**
+   * Replace the password of the user by its upgraded encoding, see {@link
+   * UserDetailsServiceImpl#updatePassword}.
+   *
+   * @param user the user
+   * @param newPassword the upgraded encoding of its password
+   * @return the {@link UserDetailsImpl} with the new password
+   */
+  @Override
+  public Mono<UserDetails> updatePassword(UserDetails user, String newPassword) {
+    // The update evicts the cached principal and source, the user is read again
+    return userRepository
+        .updatePassword(user.getUsername(), newPassword)
+        .then(Mono.defer(() -> loadUserByUsername(user.getUsername())));
+  }
+
+  private CompletableFuture<UserDetailsImpl> loadFromRepository(String username) {
+    return userRepository
+        .findCredentialsByUsername(username)
+        .collectList()
+        .filter(rows -> !rows.isEmpty())
+        .map(UserDetailsImpl::build)
+        .toFuture();
+  }
+}
@@ -0,0 +1,229 @@
+package com.example.login.security.services;
+
+import com.example.login.models.RefreshToken;
+import com.example.login.repository.RefreshTokenRepository;
+import com.example.login.security.jwt.JwtClaims;
+import com.example.login.security.jwt.JwtRevocationList;
+import com.example.login.security.jwt.JwtUtils;
+import com.example.login.security.jwt.TokenDigests;
+import jakarta.annotation.PostConstruct;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Issues and rotates the refresh tokens, exchanged on /api/auth/refresh for a short lived access
+ * token. The data store is only touched on sign in, refresh and sign out, the access tokens being
+ * verified in between like any other jwt.
+ *
+ * <p>A refresh token is single use, it is rotated into its successor of the same family. A used
+ * token coming back means that the family leaked, it is ended as a whole: its tokens are deleted,
+ * its access tokens revoked and, for an LDAP user, the persistent token deleted as on a series
+ * mismatch.
+ *
+ * @author sy
+ */
+@Service
+@Slf4j
+public class RefreshTokenService {
+
+  private static final int TOKEN_BYTES = 32;
+
+  private static final Base64.Encoder TOKEN_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private final SecureRandom random = new SecureRandom();
+
+  @Value("${examplelogin.app.refresh.enabled:false}")
+  private boolean enabled;
+
+  @Value("${examplelogin.app.refresh.expirationMs:86400000}")
+  private long expirationMs;
+
+  @Autowired private RefreshTokenRepository refreshTokenRepository;
+
+  @Autowired private UserDetailsServiceImpl userDetailsService;
+
+  @Autowired private TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired private JwtUtils jwtUtils;
+
+  @Autowired private JwtRevocationList revocationList;
+
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  private TransactionTemplate transactionTemplate;
+
+  @PostConstruct
+  void initTransactionTemplate() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Issue the first refresh token of a new family, on sign in.
+   *
+   * @param authentication the successful {@link Authentication}
+   * @param jwt the access token issued on sign in
+   * @return the refresh token, null if the refresh tokens are disabled
+   */
+  public String issue(Authentication authentication, String jwt) {
+    if (!enabled) {
+      return null;
+    }
+
+    PrincipalSource source =
+        authentication.getPrincipal() instanceof UserDetailsImpl
+            ? PrincipalSource.DAO
+            : PrincipalSource.LDAP;
+    Date expiresAt = new Date(System.currentTimeMillis() + expirationMs);
+    return save(UUID.randomUUID().toString(), authentication.getName(), source, jwt, expiresAt);
+  }
+
+  /**
+   * Exchange the given refresh token for a new access token and its successor, the principal being
+   * reloaded from its store for up to date claims.
+   *
+   * @param refreshToken Value to exchange
+   * @return the {@link RefreshedToken}
+   * @throws BadCredentialsException if the refresh token is unknown, expired or already used
+   */
+  public RefreshedToken refresh(String refreshToken) {
+    RefreshedToken refreshed =
+        enabled
+            ? transactionTemplate.execute(status -> rotate(hash(refreshToken)))
+            : null;
+    if (refreshed == null) {
+      throw new BadCredentialsException("Error: Invalid refresh token.");
+    }
+    return refreshed;
+  }
+
+  /**
+   * End the family of the refresh token issued with the given access token, on sign out.
+   *
+   * @param accessJti the id (jti) of the access token
+   */
+  public void revokeByAccessJti(String accessJti) {
+    if (!enabled || accessJti == null) {
+      return;
+    }
+
+    transactionTemplate.execute(
+        status -> {
+          refreshTokenRepository
+              .findByAccessJti(accessJti)
+              .ifPresent(token -> refreshTokenRepository.deleteFamily(token.getFamilyId()));
+          return null;
+        });
+  }
+
+  /** Delete the refresh tokens whose family has expired. */
+  @Scheduled(
+      initialDelayString = "${examplelogin.app.refresh.sweepMs:3600000}",
+      fixedDelayString = "${examplelogin.app.refresh.sweepMs:3600000}")
+  public void sweep() {
+    if (!enabled) {
+      return;
+    }
+
+    try {
+      int deleted = refreshTokenRepository.deleteExpired(new Date());
+      if (deleted > 0) {
+        log.info("Swept {} expired refresh tokens", deleted);
+      }
+    } catch (Exception e) {
+      log.error("Failed to sweep expired refresh tokens: {}", e.getMessage());
+    }
+  }
+
+  private RefreshedToken rotate(String tokenHash) {
+    Date now = new Date();
+    Optional<RefreshToken> found = refreshTokenRepository.findByTokenHash(tokenHash);
+    if (!found.isPresent() || !found.get().getExpiresAt().after(now)) {
+      return null;
+    }
+
+    RefreshToken token = found.get();
+    if (refreshTokenRepository.markUsed(token.getId(), now) == 0) {
+      log.warn(
+          "Refresh token reused for user {}, ending its family {}",
+          token.getUsername(),
+          token.getFamilyId());
+      endFamily(token);
+      return null;
+    }
+
+    String username = token.getUsername();
+    UserDetails principal =
+        token.getSource() == PrincipalSource.DAO
+            ? userDetailsService.loadUserByUsername(username)
+            : tokenDetailsService.loadUserByUsername(username);
+    Authentication authentication =
+        new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+    String accessToken = jwtUtils.generateJwtToken(authentication);
+
+    if (token.getSource() == PrincipalSource.LDAP) {
+      // The series follows the access token, the previous one is revoked rather than left to fail
+      // the series check as a theft
+      principal = tokenDetailsService.onLoginSuccess(authentication, accessToken);
+      revocationList.revoke(token.getAccessJti(), token.getAccessExpiresAt());
+    }
+
+    String successor =
+        save(token.getFamilyId(), username, token.getSource(), accessToken, token.getExpiresAt());
+    return new RefreshedToken(accessToken, successor, principal);
+  }
+
+  private void endFamily(RefreshToken token) {
+    for (RefreshToken member : refreshTokenRepository.findByFamilyId(token.getFamilyId())) {
+      if (member.getAccessJti() != null) {
+        revocationList.revoke(member.getAccessJti(), member.getAccessExpiresAt());
+      }
+    }
+    refreshTokenRepository.deleteFamily(token.getFamilyId());
+
+    if (token.getSource() == PrincipalSource.LDAP) {
+      tokenDetailsService.deleteToken(token.getUsername());
+    }
+  }
+
+  private String save(
+      String familyId, String username, PrincipalSource source, String jwt, Date expiresAt) {
+    JwtClaims claims =
+        jwtUtils
+            .parseJwtToken(jwt)
+            .orElseThrow(() -> new IllegalStateException("Error: Invalid access token issued."));
+
+    byte[] bytes = new byte[TOKEN_BYTES];
+    random.nextBytes(bytes);
+    String refreshToken = TOKEN_ENCODER.encodeToString(bytes);
+
+    refreshTokenRepository.save(
+        RefreshToken.builder()
+            .tokenHash(hash(refreshToken))
+            .familyId(familyId)
+            .username(username)
+            .source(source)
+            .accessJti(claims.getId())
+            .accessExpiresAt(claims.getExpiration())
+            .expiresAt(expiresAt)
+            .build());
+    return refreshToken;
+  }
+
+  private String hash(String refreshToken) {
+    return TOKEN_ENCODER.encodeToString(TokenDigests.sha256(refreshToken));
+  }
+}
@@ -0,0 +1,22 @@
+package com.example.login.security.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Access token and refresh token issued by {@link RefreshTokenService#refresh(String)}.
+ *
+ * @author sy
+ */
+@AllArgsConstructor
+@Getter
+public class RefreshedToken {
+
+  private final String accessToken;
+
+  private final String refreshToken;
+
+  /** The principal of the tokens, {@link UserDetailsImpl} or {@link TokenDetailsImpl}. */
+  private final UserDetails principal;
+}
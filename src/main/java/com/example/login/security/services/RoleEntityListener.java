@@ -0,0 +1,26 @@
+package com.example.login.security.services;
+
+import com.example.login.models.Role;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * JPA entity listener that invalidates the {@link RoleRegistry} once a {@link Role} is saved,
+ * updated or deleted, after the commit.
+ *
+ * @author sy
+ */
+public class RoleEntityListener {
+
+  @Autowired private ObjectProvider<RoleRegistry> roleRegistry;
+
+  @PostPersist
+  @PostUpdate
+  @PostRemove
+  public void onChange(Role role) {
+    AfterCommit.run(() -> roleRegistry.ifAvailable(RoleRegistry::invalidate));
+  }
+}
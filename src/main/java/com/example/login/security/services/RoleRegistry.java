@@ -0,0 +1,93 @@
+package com.example.login.security.services;
+
+import com.example.login.models.ERole;
+import com.example.login.models.Role;
+import com.example.login.repository.RoleRepository;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory registry of the {@link Role} objects, loaded from {@link RoleRepository} at startup and
+ * reloaded once a change of a {@link Role} commits (see {@link RoleEntityListener}). All the role
+ * lookups go through the registry.
+ *
+ * @author sy
+ */
+@Component
+public class RoleRegistry {
+
+  @Autowired private RoleRepository roleRepository;
+
+  private volatile Map<ERole, Role> roles = Collections.emptyMap();
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void refresh() {
+    Map<ERole, Role> loaded = new EnumMap<>(ERole.class);
+    roleRepository.findAll().forEach(role -> loaded.put(role.getName(), role));
+
+    roles = Collections.unmodifiableMap(loaded);
+  }
+
+  /** Drop the loaded roles, they are reloaded on the next lookup. */
+  public void invalidate() {
+    roles = Collections.emptyMap();
+  }
+
+  /**
+   * Retrieve the {@link Role} of the given role enumeration.
+   *
+   * @param name Value to search
+   * @return the {@link Role}
+   * @throws RuntimeException if the role does not exist in the data store
+   */
+  public Role getRole(ERole name) {
+    Role role = roles.get(name);
+    if (role == null) {
+      // Not loaded yet or changed since
+      refresh();
+      role = roles.get(name);
+    }
+
+    if (role == null) {
+      throw new RuntimeException("Error: Role is not found.");
+    }
+    return role;
+  }
+
+  /**
+   * Retrieve the {@link Role} requested on sign up: "admin", "mod", anything else is a user.
+   *
+   * @param name Value to search
+   * @return the {@link Role}
+   */
+  public Role getRequestedRole(String name) {
+    switch (name) {
+      case "admin":
+        return getRole(ERole.ROLE_ADMIN);
+      case "mod":
+        return getRole(ERole.ROLE_MODERATOR);
+      default:
+        return getRole(ERole.ROLE_USER);
+    }
+  }
+
+  /**
+   * Retrieve the {@link Role} of an authority granted by Active Directory: "ROLE_ADMIN" is an
+   * admin, anything else is a user.
+   *
+   * @param authority Value to search
+   * @return the {@link Role}
+   */
+  public Role getGrantedRole(String authority) {
+    // Ignore "ROLE_" e.g. "ROLE_ADMIN" > "ADMIN"
+    if (authority.length() > 5 && authority.substring(5).equalsIgnoreCase("admin")) {
+      return getRole(ERole.ROLE_ADMIN);
+    }
+    return getRole(ERole.ROLE_USER);
+  }
+}
@@ -1,11 +1,14 @@
 package com.example.login.security.services;
 
 import com.example.login.models.CustomPersistentToken;
+import com.example.login.repository.TokenCredentials;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.stream.Collectors;
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -20,7 +23,6 @@ import org.springframework.security.core.userdetails.UserDetails;
  */
 @EqualsAndHashCode
 @NoArgsConstructor
-@AllArgsConstructor
 @Getter
 public class TokenDetailsImpl implements UserDetails {
   private static final long serialVersionUID = 2L;
@@ -33,6 +35,25 @@ public class TokenDetailsImpl implements UserDetails {
 
   private Collection<? extends GrantedAuthority> authorities;
 
+  /** When the series was stored, null when not known. */
+  @JsonIgnore private Date lastUsed;
+
+  /** SHA-256 digest of the jwt of the series, decoded once by {@link #getSeriesDigest()}. */
+  @EqualsAndHashCode.Exclude @Getter(AccessLevel.NONE) private transient byte[] seriesDigest;
+
+  public TokenDetailsImpl(
+      Long id,
+      String username,
+      String password,
+      Collection<? extends GrantedAuthority> authorities,
+      Date lastUsed) {
+    this.id = id;
+    this.username = username;
+    this.password = password;
+    this.authorities = authorities;
+    this.lastUsed = lastUsed;
+  }
+
   /**
    * Creates the {@link UserDetails} that converts Set<Role> into List<GrantedAuthority> required
    * for Spring Security.
@@ -47,7 +68,46 @@ public class TokenDetailsImpl implements UserDetails {
             .collect(Collectors.toList());
 
     // We use the series as password
-    return new TokenDetailsImpl(token.getId(), token.getUsername(), token.getSeries(), authorities);
+    return new TokenDetailsImpl(
+        token.getId(), token.getUsername(), token.getSeries(), authorities, token.getLast_used());
+  }
+
+  /**
+   * Creates the {@link UserDetails} from the {@link TokenCredentials} rows of a single token,
+   * aggregating their role names into List<GrantedAuthority>.
+   *
+   * @param rows Rows to aggregate, one per role, not empty
+   * @return the newly created {@link UserDetails}
+   */
+  public static TokenDetailsImpl build(List<TokenCredentials> rows) {
+    List<GrantedAuthority> authorities = new ArrayList<>(rows.size());
+    for (TokenCredentials row : rows) {
+      if (row.getRoleName() != null) {
+        authorities.add(new SimpleGrantedAuthority(row.getRoleName().name()));
+      }
+    }
+
+    TokenCredentials first = rows.get(0);
+    // We use the series as password
+    return new TokenDetailsImpl(
+        first.getId(), first.getUsername(), first.getSeries(), authorities, first.getLastUsed());
+  }
+
+  /**
+   * The SHA-256 digest of the jwt the series was generated from, decoded from the series on the
+   * first call only: the instance cached by the token store is compared on every request.
+   *
+   * @return the 32 bytes digest, not to be modified
+   */
+  @JsonIgnore
+  public byte[] getSeriesDigest() {
+    byte[] digest = seriesDigest;
+    if (digest == null) {
+      // Concurrent callers may each decode it, the outcome is the same
+      digest = TokenDetailsServiceImpl.decodeSeries(password);
+      seriesDigest = digest;
+    }
+    return digest;
   }
 
   @Override
@@ -2,18 +2,29 @@ package com.example.login.security.services;
 
 import static org.springframework.ldap.query.LdapQueryBuilder.query;
 
+import com.example.login.metrics.AuthMetrics;
 import com.example.login.models.CustomPersistentToken;
-import com.example.login.models.ERole;
 import com.example.login.models.Role;
 import com.example.login.repository.CustomPersistentTokenRepository;
-import com.example.login.repository.RoleRepository;
+import com.example.login.security.jwt.TokenDigests;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import jakarta.annotation.PostConstruct;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Base64;
 import java.util.Date;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.query.LdapQuery;
@@ -22,11 +33,10 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Implementation of {@link UserDetailsService} that provides {@link CustomPersistentToken} object
- * using {@link CustomPersistentTokenRepository}.
+ * using the {@link PersistentTokenStore}, backed by {@link CustomPersistentTokenRepository}.
  *
  * @author sy
  */
@@ -34,11 +44,62 @@ import org.springframework.transaction.annotation.Transactional;
 @Slf4j
 public class TokenDetailsServiceImpl implements UserDetailsService {
 
-  @Autowired private CustomPersistentTokenRepository tokenRepository;
+  /** Length of the unpadded Base64url encoding of a SHA-256 digest. */
+  private static final int SERIES_LENGTH = 43;
+
+  private static final Base64.Encoder SERIES_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private static final Base64.Decoder SERIES_DECODER = Base64.getUrlDecoder();
+
+  @Autowired private PersistentTokenStore tokenStore;
 
   @Autowired private LdapTemplate ldapTemplate;
 
-  @Autowired private RoleRepository roleRepository;
+  @Autowired private RoleRegistry roleRegistry;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  @Autowired private Ticker ticker;
+
+  @Autowired private Clock clock;
+
+  @Value("${examplelogin.app.ad.userSearchBase:OU=Users,OU=Organizational}")
+  private String userSearchBase;
+
+  @Value("${examplelogin.app.ad.userSearchAttribute:sAMAccountName}")
+  private String userSearchAttribute;
+
+  @Value("${examplelogin.app.ad.existenceCache.maximumSize:10000}")
+  private long existenceCacheMaximumSize;
+
+  @Value("${examplelogin.app.ad.existenceCache.ttlMs:600000}")
+  private long existenceCacheTtlMs;
+
+  @Value("${examplelogin.app.ad.existenceCache.negativeTtlMs:5000}")
+  private long existenceCacheNegativeTtlMs;
+
+  @Value("${examplelogin.app.ad.existenceCache.refreshMs:60000}")
+  private long existenceCacheRefreshMs;
+
+  private AsyncLoadingCache<String, Boolean> ldapExistenceCache;
+
+  @PostConstruct
+  void initExistenceCache() {
+    ldapExistenceCache =
+        Caffeine.newBuilder()
+            .maximumSize(existenceCacheMaximumSize)
+            .ticker(ticker)
+            .refreshAfterWrite(existenceCacheRefreshMs, TimeUnit.MILLISECONDS)
+            // A user created in the directory must not be kept out for the whole TTL
+            .expireAfter(
+                Expiry.writing(
+                    (String username, Boolean exists) ->
+                        Duration.ofMillis(
+                            exists ? existenceCacheTtlMs : existenceCacheNegativeTtlMs)))
+            .recordStats()
+            .buildAsync(this::searchLdap);
+    authMetrics.monitor(ldapExistenceCache.synchronous(), "ldapExistence");
+  }
 
   /**
    * Build the {@link UserDetails} of the {@link CustomPersistentToken} object found in the data
@@ -51,133 +112,167 @@ public class TokenDetailsServiceImpl implements UserDetailsService {
    * @throws UsernameNotFoundException if an error occurs
    */
   @Override
-  @Transactional
-  public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+  public TokenDetailsImpl loadUserByUsername(String username) throws UsernameNotFoundException {
     if (existsInLdap(username)) {
-      CustomPersistentToken token =
-          tokenRepository
-              .findByUsername(username)
-              .orElseThrow(
-                  () -> new UsernameNotFoundException("User Not Found with username: " + username));
-
-      return TokenDetailsImpl.build(token);
+      return tokenStore
+          .findByUsername(username)
+          .orElseThrow(
+              () -> new UsernameNotFoundException("User Not Found with username: " + username));
     } else {
       throw new UsernameNotFoundException("User Not Found with username: " + username);
     }
   }
 
   /**
-   * Looks up username to verify it exists
+   * Same as {@link #loadUserByUsername(String)} but reading the {@link CustomPersistentToken} from
+   * the data store, used when the in-memory copy may be stale (e.g. rotated on another node).
+   *
+   * @param username Value to search
+   * @return the {@link UserDetails} of the {@link CustomPersistentToken} object
+   * @throws UsernameNotFoundException if an error occurs
+   */
+  public TokenDetailsImpl reloadUserByUsername(String username) throws UsernameNotFoundException {
+    return tokenStore
+        .reloadByUsername(username)
+        .orElseThrow(
+            () -> new UsernameNotFoundException("User Not Found with username: " + username));
+  }
+
+  /**
+   * Looks up username to verify it exists. Results are cached and refreshed in the background, a
+   * failing refresh keeps serving the previous result until it expires. A user not found is only
+   * cached for a short time. A missing result is searched on the calling thread.
    *
    * @param username Value to search
    * @return true/false if exists
    */
   public boolean existsInLdap(String username) {
+    return AsyncCaches.get(ldapExistenceCache, username, this::searchLdap);
+  }
+
+  /**
+   * Same as {@link #existsInLdap(String)} without blocking, a missing result is searched on the
+   * given executor.
+   *
+   * @param username Value to search
+   * @param executor the executor the directory search may block
+   * @return true/false if exists, once known
+   */
+  public CompletableFuture<Boolean> existsInLdap(String username, Executor executor) {
+    return ldapExistenceCache.get(
+        username,
+        (key, cacheExecutor) -> CompletableFuture.supplyAsync(() -> searchLdap(key), executor));
+  }
+
+  private boolean searchLdap(String username) {
     LdapQuery query =
         query()
-            .base("OU=Users,OU=Organizational")
-            .attributes("cn", "sAMAccountName")
+            .base(userSearchBase)
+            .attributes("cn", userSearchAttribute)
             .where("objectclass")
             .is("person")
-            .and("sAMAccountName")
+            .and(userSearchAttribute)
             .is(username);
 
-    return !(ldapTemplate
-        .search(query, (AttributesMapper<String>) attrs -> (String) attrs.get("cn").get())
+    return !(authMetrics
+        .ldapSearchTimer()
+        .record(
+            () ->
+                ldapTemplate.search(
+                    query, (AttributesMapper<String>) attrs -> (String) attrs.get("cn").get()))
         .isEmpty());
   }
 
   /**
-   * Creates a new persistent login token with a new series number, stores the data in the
-   * persistent token repository.
+   * Creates a new persistent login token with a new series number. It replaces the token of the
+   * user in memory right away and in the persistent token repository asynchronously.
    *
    * @param successfulAuthentication the successful {@link Authentication} object.
    * @param jwtToken the generated jwt.
-   * @param issuedAt the {@link Date} the jwt was issued.
+   * @return the {@link TokenDetailsImpl} of the new token
    */
-  public void onLoginSuccess(
-      Authentication successfulAuthentication, String jwtToken, Date issuedAt) {
+  public TokenDetailsImpl onLoginSuccess(Authentication successfulAuthentication, String jwtToken) {
     String username = successfulAuthentication.getName();
 
     // Generate the roles from the list of authorities
     Set<Role> roles =
         successfulAuthentication.getAuthorities().stream()
-            .map(
-                grantedAuthority -> {
-                  // Ignore "ROLE_" e.g. "ROLE_USER" > "USER"
-                  switch (grantedAuthority.getAuthority().substring(5).toLowerCase()) {
-                    case "admin":
-                      Role role =
-                          roleRepository
-                              .findByName(ERole.ROLE_ADMIN)
-                              .orElseThrow(() -> new RuntimeException("Error: Role is not found."));
-                      return role;
-                    case "user":
-                    default:
-                      Role userRole =
-                          roleRepository
-                              .findByName(ERole.ROLE_USER)
-                              .orElseThrow(() -> new RuntimeException("Error: Role is not found."));
-                      return userRole;
-                  }
-                })
+            .map(grantedAuthority -> roleRegistry.getGrantedRole(grantedAuthority.getAuthority()))
             .collect(Collectors.toSet());
 
     CustomPersistentToken token =
         new CustomPersistentToken(
-            username, jwtToken, generateSeriesData(jwtToken), issuedAt, roles);
+            username, generateSeriesData(jwtToken), new Date(clock.millis()), roles);
 
-    try {
-      createNewToken(token);
-    } catch (Exception e) {
-      log.error("Failed to save persistent token: {}", e.getMessage());
-    }
+    return tokenStore.saveBehind(token);
   }
 
   /**
-   * Generates a unique series identifier, used for identifying a user.
+   * Generates a unique series identifier, used for identifying a user. The series is the unpadded
+   * Base64url SHA-256 digest of the jwt, i.e. {@value #SERIES_LENGTH} characters whatever the size
+   * of the jwt.
    *
    * @param token the jwt.
    * @return the generated series.
    */
-  private String generateSeriesData(String token) {
-    // Simple encode
-    byte[] bytesEncoded = Base64.getEncoder().encode(token.getBytes());
-
-    return new String(bytesEncoded);
+  public String generateSeriesData(String token) {
+    return SERIES_ENCODER.encodeToString(TokenDigests.sha256(token));
   }
 
+  /**
+   * Compares the jwt against the stored series in constant time. Series stored before the digest
+   * format (the Base64 encoded jwt itself) are still accepted until the user logs in again, which
+   * replaces them with a digest.
+   *
+   * @param token the jwt.
+   * @param series the stored series.
+   * @return true/false if the series was generated from the jwt
+   */
   public boolean compareSeries(String token, String series) {
-    // Decode data on other side, by processing encoded data
-    byte[] valueDecoded = Base64.getDecoder().decode((series));
+    return MessageDigest.isEqual(TokenDigests.sha256(token), decodeSeries(series));
+  }
 
-    return (token.equals(new String(valueDecoded)));
+  /**
+   * Same as {@link #compareSeries(String, String)} against the series of the given token, without
+   * decoding it again.
+   *
+   * @param token the jwt.
+   * @param tokenDetails the stored token.
+   * @return true/false if its series was generated from the jwt
+   */
+  public boolean compareSeries(String token, TokenDetailsImpl tokenDetails) {
+    return MessageDigest.isEqual(TokenDigests.sha256(token), tokenDetails.getSeriesDigest());
   }
 
-  @Transactional
-  void createNewToken(CustomPersistentToken token) {
-    CustomPersistentToken current = tokenRepository.findBySeries(token.getSeries());
+  /**
+   * Decode the SHA-256 digest of the jwt the given series was generated from.
+   *
+   * @param series the stored series.
+   * @return the 32 bytes digest, empty when the series is not valid Base64
+   */
+  static byte[] decodeSeries(String series) {
+    try {
+      if (series.length() == SERIES_LENGTH) {
+        return SERIES_DECODER.decode(series);
+      }
 
-    if (current != null) {
-      throw new DataIntegrityViolationException(
-          "Series Id '" + token.getSeries() + "' already exists!");
+      // Legacy series
+      return TokenDigests.sha256(Base64.getDecoder().decode(series));
+    } catch (IllegalArgumentException e) {
+      return new byte[0];
     }
-
-    tokenRepository.save(token);
   }
 
-  @Transactional
   public void logout(Authentication authentication) {
     if (authentication != null) {
       if (authentication.getPrincipal() instanceof TokenDetailsImpl) {
         TokenDetailsImpl tokenPrincial = (TokenDetailsImpl) authentication.getPrincipal();
-        tokenRepository.deleteBySeries(tokenPrincial.getPassword());
+        tokenStore.removeBySeries(tokenPrincial.getPassword());
       }
     }
   }
 
-  @Transactional
   public void deleteToken(String username) {
-    tokenRepository.deleteByUsername(username);
+    tokenStore.removeByUsername(username);
   }
 }
@@ -1,7 +1,9 @@
 package com.example.login.security.services;
 
 import com.example.login.models.User;
+import com.example.login.repository.UserCredentials;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -23,7 +25,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 @AllArgsConstructor
 @Getter
 public class UserDetailsImpl implements UserDetails {
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = 2L;
   private Long id;
 
   private String username;
@@ -32,6 +34,12 @@ public class UserDetailsImpl implements UserDetails {
 
   private Collection<? extends GrantedAuthority> authorities;
 
+  /**
+   * Version of the credentials, changed by a password change only, null when the principal was
+   * not loaded from the users table.
+   */
+  @JsonIgnore private Long credentialsVersion;
+
   /**
    * Creates the {@link UserDetails} that converts Set<Role> into List<GrantedAuthority> required
    * for Spring Security.
@@ -45,7 +53,36 @@ public class UserDetailsImpl implements UserDetails {
             .map(role -> new SimpleGrantedAuthority(role.getName().name()))
             .collect(Collectors.toList());
 
-    return new UserDetailsImpl(user.getId(), user.getUsername(), user.getPassword(), authorities);
+    return new UserDetailsImpl(
+        user.getId(),
+        user.getUsername(),
+        user.getPassword(),
+        authorities,
+        user.getCredentialsVersion());
+  }
+
+  /**
+   * Creates the {@link UserDetails} from the {@link UserCredentials} rows of a single user,
+   * aggregating their role names into List<GrantedAuthority>.
+   *
+   * @param rows Rows to aggregate, one per role, not empty
+   * @return the newly created {@link UserDetails}
+   */
+  public static UserDetailsImpl build(List<UserCredentials> rows) {
+    List<GrantedAuthority> authorities = new ArrayList<>(rows.size());
+    for (UserCredentials row : rows) {
+      if (row.getRoleName() != null) {
+        authorities.add(new SimpleGrantedAuthority(row.getRoleName().name()));
+      }
+    }
+
+    UserCredentials first = rows.get(0);
+    return new UserDetailsImpl(
+        first.getId(),
+        first.getUsername(),
+        first.getPassword(),
+        authorities,
+        first.getCredentialsVersion());
   }
 
   @Override
@@ -1,25 +1,77 @@
 package com.example.login.security.services;
 
+import com.example.login.metrics.AuthMetrics;
 import com.example.login.models.User;
+import com.example.login.repository.UserCredentials;
 import com.example.login.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import jakarta.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * Implementation of {@link UserDetailsService} that provides full custom {@link User} object using
  * {@link UserRepository}.
  *
+ * <p>The {@link UserDetails} are cached by username, see {@link #evict(String)} to invalidate them
+ * when the {@link User} changes.
+ *
  * @author sy
  */
 @Service
-public class UserDetailsServiceImpl implements UserDetailsService {
+public class UserDetailsServiceImpl implements UserDetailsService, UserDetailsPasswordService {
+
+  @Value("${examplelogin.app.userCache.maximumSize:10000}")
+  private long userCacheMaximumSize;
+
+  @Value("${examplelogin.app.userCache.ttlMs:300000}")
+  private long userCacheTtlMs;
 
   @Autowired private UserRepository userRepository;
 
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  @Autowired private AuthMetrics authMetrics;
+
+  private TransactionTemplate transactionTemplate;
+
+  private TransactionTemplate readOnlyTransactionTemplate;
+
+  private AsyncCache<String, UserDetailsImpl> userCache;
+
+  @PostConstruct
+  void initUserCache() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    // Read-only transactions run with flush mode MANUAL, nothing is dirty checked nor flushed
+    readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+    readOnlyTransactionTemplate.setReadOnly(true);
+    userCache =
+        Caffeine.newBuilder()
+            .maximumSize(userCacheMaximumSize)
+            .expireAfterWrite(userCacheTtlMs, TimeUnit.MILLISECONDS)
+            .recordStats()
+            .buildAsync();
+    authMetrics.monitor(userCache.synchronous(), "users");
+  }
+
   /**
    * Build the {@link UserDetails} of the {@link User} object found in the data store. {@link
    * UserDetails} contains the necessary information (such as: username, password, authorities) to
@@ -31,14 +83,109 @@ public class UserDetailsServiceImpl implements UserDetailsService {
    * @throws UsernameNotFoundException if an error occurs
    */
   @Override
-  @Transactional
   public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-    User user =
-        userRepository
-            .findByUsername(username)
-            .orElseThrow(
-                () -> new UsernameNotFoundException("User Not Found with username: " + username));
+    return findByUsername(username)
+        .orElseThrow(
+            () -> new UsernameNotFoundException("User Not Found with username: " + username));
+  }
+
+  /**
+   * Find the {@link UserDetails} of the {@link User} without throwing when it does not exist.
+   *
+   * @param username Value to search
+   * @return the {@link UserDetailsImpl} (or empty instance)
+   */
+  public Optional<UserDetailsImpl> findByUsername(String username) {
+    // Absent users are not cached, the loader returning null leaves no entry behind
+    return Optional.ofNullable(AsyncCaches.get(userCache, username, this::loadFromRepository));
+  }
+
+  /**
+   * Same as {@link #findByUsername(String)} without blocking, a username not cached being looked up
+   * by the given function. The reactive profile reads through it, so that the same evictions apply.
+   *
+   * @param username Value to search
+   * @param lookup the {@link UserDetailsImpl} of the username (or null), once loaded
+   * @return the {@link UserDetailsImpl} (or null), once known
+   */
+  public CompletableFuture<UserDetailsImpl> findByUsername(
+      String username, Function<String, CompletableFuture<UserDetailsImpl>> lookup) {
+    return userCache.get(username, (key, executor) -> lookup.apply(key));
+  }
+
+  /**
+   * Find the {@link UserDetails} of the given usernames, the ones not cached are loaded with a
+   * single query.
+   *
+   * @param usernames Values to search
+   * @return the {@link UserDetailsImpl} by username, without the usernames not found
+   */
+  public Map<String, UserDetailsImpl> findAllByUsername(Collection<String> usernames) {
+    return AsyncCaches.getAll(userCache, usernames, this::loadAllFromRepository);
+  }
+
+  /**
+   * Store the password of the {@link User} hashed with the current encoding, called after a
+   * successful sign in when the stored hash needs an upgrade.
+   *
+   * @param user the {@link UserDetails} to update
+   * @param newPassword the newly hashed password
+   * @return the {@link UserDetails} with the new password
+   */
+  @Override
+  public UserDetails updatePassword(UserDetails user, String newPassword) {
+    return transactionTemplate.execute(
+        status -> {
+          User entity =
+              userRepository
+                  .findByUsername(user.getUsername())
+                  .orElseThrow(
+                      () ->
+                          new UsernameNotFoundException(
+                              "User Not Found with username: " + user.getUsername()));
+          entity.setPassword(newPassword);
+
+          // The entity listener evicts the cached UserDetails on update
+          return UserDetailsImpl.build(userRepository.save(entity));
+        });
+  }
+
+  /**
+   * Remove the cached {@link UserDetails} of the given username.
+   *
+   * @param username Value to evict
+   */
+  public void evict(String username) {
+    userCache.synchronous().invalidate(username);
+  }
+
+  /**
+   * Statistics (hits, misses, evictions) of the {@link UserDetails} cache.
+   *
+   * @return the {@link CacheStats}
+   */
+  public CacheStats stats() {
+    return userCache.synchronous().stats();
+  }
+
+  private UserDetailsImpl loadFromRepository(String username) {
+    // Only the needed columns, roles included, in one query and without managed entities
+    List<UserCredentials> rows =
+        readOnlyTransactionTemplate.execute(
+            status -> userRepository.findCredentialsByUsername(username));
+    return rows.isEmpty() ? null : UserDetailsImpl.build(rows);
+  }
+
+  private Map<String, UserDetailsImpl> loadAllFromRepository(Collection<String> usernames) {
+    List<UserCredentials> rows =
+        readOnlyTransactionTemplate.execute(
+            status -> userRepository.findCredentialsByUsernameIn(usernames));
 
-    return UserDetailsImpl.build(user);
+    Map<String, UserDetailsImpl> userDetails = new HashMap<>();
+    rows.stream()
+        .collect(Collectors.groupingBy(UserCredentials::getUsername))
+        .forEach(
+            (username, userRows) -> userDetails.put(username, UserDetailsImpl.build(userRows)));
+    return userDetails;
   }
 }
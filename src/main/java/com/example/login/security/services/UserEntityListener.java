@@ -0,0 +1,36 @@
+package com.example.login.security.services;
+
+import com.example.login.models.User;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * JPA entity listener that invalidates the cached principal and {@link PrincipalSource} of a
+ * {@link User} once it is saved, updated (including its roles) or deleted, after the commit.
+ *
+ * <p>Instantiated by Hibernate through the Spring bean container, the services are looked up
+ * lazily as the listener is created while the EntityManagerFactory is being built.
+ *
+ * @author sy
+ */
+public class UserEntityListener {
+
+  @Autowired private ObjectProvider<UserDetailsServiceImpl> userDetailsService;
+
+  @Autowired private ObjectProvider<PrincipalSourceResolver> principalSourceResolver;
+
+  @PostPersist
+  @PostUpdate
+  @PostRemove
+  public void onChange(User user) {
+    String username = user.getUsername();
+    AfterCommit.run(
+        () -> {
+          userDetailsService.ifAvailable(service -> service.evict(username));
+          principalSourceResolver.ifAvailable(resolver -> resolver.evict(username));
+        });
+  }
+}
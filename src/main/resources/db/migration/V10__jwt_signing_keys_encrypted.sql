@@ -0,0 +1,4 @@
+-- The private keys are encrypted with examplelogin.app.jwtKeys.encryptionKey (JwtKeyRing), the
+-- rows stored unencrypted before are encrypted by the next rotation. Only the application role
+-- should be granted access to the table
+alter table jwt_signing_keys add column encrypted boolean not null default false;
@@ -0,0 +1,9 @@
+-- Version of the credentials of a user, carried by its stateless jwt: incremented when the password
+-- changes but not when its hash is upgraded on sign in, which keeps the outstanding jwt valid
+alter table users add column credentials_version bigint not null default 0;
+
+-- The authentication lookup (findCredentialsByUsername) also reads it
+drop index users_username_covering_idx;
+
+create index users_username_covering_idx
+    on users (username) include (id, password, credentials_version);
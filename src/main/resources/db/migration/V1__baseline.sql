@@ -0,0 +1,47 @@
+-- Schema previously created by spring.jpa.hibernate.ddl-auto=update, existing databases are
+-- baselined at this version (spring.flyway.baseline-on-migrate)
+
+create table roles (
+    id serial not null,
+    name varchar(20),
+    primary key (id)
+);
+
+create table users (
+    id bigserial not null,
+    password varchar(120),
+    username varchar(20),
+    primary key (id),
+    constraint users_username_key unique (username)
+);
+
+create table user_roles (
+    user_id int8 not null,
+    role_id int4 not null,
+    primary key (user_id, role_id),
+    constraint user_roles_user_id_fkey foreign key (user_id) references users,
+    constraint user_roles_role_id_fkey foreign key (role_id) references roles
+);
+
+create table persistent_tokens (
+    persistent_tokens_id bigserial not null,
+    last_used timestamp,
+    series varchar(255),
+    token varchar(255),
+    username varchar(255),
+    primary key (persistent_tokens_id),
+    constraint persistent_tokens_username_key unique (username)
+);
+
+create table token_roles (
+    persistent_tokens_id int8 not null,
+    role_id int4 not null,
+    primary key (persistent_tokens_id, role_id),
+    constraint token_roles_persistent_tokens_id_fkey
+        foreign key (persistent_tokens_id) references persistent_tokens,
+    constraint token_roles_role_id_fkey foreign key (role_id) references roles
+);
+
+insert into roles (name) values ('ROLE_USER');
+insert into roles (name) values ('ROLE_MODERATOR');
+insert into roles (name) values ('ROLE_ADMIN');
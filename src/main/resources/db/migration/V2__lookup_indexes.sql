@@ -0,0 +1,9 @@
+-- Logout (deleteBySeries) filters on the series, the SHA-256 digest of the jwt
+create index persistent_tokens_series_idx on persistent_tokens (series);
+
+-- Covering indexes of the authentication lookups (findCredentialsByUsername), served by index only
+-- scans. The unique constraints on username remain for the upsert conflict target.
+create index users_username_covering_idx on users (username) include (id, password);
+
+create index persistent_tokens_username_covering_idx
+    on persistent_tokens (username) include (persistent_tokens_id, series);
@@ -0,0 +1,2 @@
+-- Keyset pagination of the expired tokens sweep (PersistentTokenSweeper)
+create index persistent_tokens_last_used_idx on persistent_tokens (last_used, persistent_tokens_id);
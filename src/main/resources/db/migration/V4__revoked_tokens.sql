@@ -0,0 +1,12 @@
+-- Jwt signed out before their expiration (JwtRevocationList), deleted once expired
+create table revoked_tokens (
+    jti varchar(36) not null,
+    expires_at timestamp not null,
+    revoked_at timestamp not null,
+    primary key (jti)
+);
+
+-- Incremental sync of the other nodes
+create index revoked_tokens_revoked_at_idx on revoked_tokens (revoked_at);
+-- Startup load and pruning
+create index revoked_tokens_expires_at_idx on revoked_tokens (expires_at);
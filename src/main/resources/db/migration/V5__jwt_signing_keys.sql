@@ -0,0 +1,10 @@
+-- ES256 key ring of the jwt (JwtKeyRing), shared by the nodes. Each key signs from activates_at
+-- for examplelogin.app.jwtKeys.rotationMs, then stays published until the jwt it signed expire
+create table jwt_signing_keys (
+    kid varchar(36) not null,
+    private_key bytea not null,
+    public_key bytea not null,
+    activates_at timestamp not null,
+    expires_at timestamp not null,
+    primary key (kid)
+);
@@ -0,0 +1,20 @@
+-- Rotating refresh tokens (RefreshTokenService), stored as the SHA-256 digest of the token. The
+-- tokens issued from one sign in form a family, ended as a whole when a used token comes back
+create table refresh_tokens (
+    id bigserial not null,
+    token_hash varchar(43) not null,
+    family_id varchar(36) not null,
+    username varchar(255) not null,
+    source varchar(10) not null,
+    access_jti varchar(36),
+    access_expires_at timestamp,
+    expires_at timestamp not null,
+    used_at timestamp,
+    primary key (id),
+    constraint refresh_tokens_token_hash_key unique (token_hash)
+);
+
+create index refresh_tokens_family_id_idx on refresh_tokens (family_id);
+-- Sign out, by the access token
+create index refresh_tokens_access_jti_idx on refresh_tokens (access_jti);
+create index refresh_tokens_expires_at_idx on refresh_tokens (expires_at);
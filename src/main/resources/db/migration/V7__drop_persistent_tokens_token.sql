@@ -0,0 +1,3 @@
+-- The jwt is verified against its series, the SHA-256 digest of the jwt, the raw jwt is no longer
+-- stored
+alter table persistent_tokens drop column token;
@@ -0,0 +1,3 @@
+-- Version of the users row, also incremented by Hibernate when only the roles of a user change so
+-- that the update is flushed and the cached principal evicted
+alter table users add column version bigint not null default 0;
@@ -0,0 +1,6 @@
+-- The authentication lookup (findCredentialsByUsername) also reads last_used, to tell a jwt rotated
+-- on another node and not written yet from a stolen one
+drop index persistent_tokens_username_covering_idx;
+
+create index persistent_tokens_username_covering_idx
+    on persistent_tokens (username) include (persistent_tokens_id, series, last_used);
@@ -1,17 +1,62 @@
 package com.example.login;
 
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldif.LDIFReader;
+import java.io.IOException;
+import java.io.InputStream;
 import org.junit.runner.RunWith;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
-import org.springframework.test.web.servlet.MockMvc;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @AutoConfigureMockMvc
 @SpringBootTest()
 @ActiveProfiles("test")
+@Import(TestClock.Config.class)
 public abstract class BaseIntegrationTest {
-  @Autowired private MockMvc mvc;
+
+  /**
+   * In-memory directory shared by the test contexts, an embedded one per context would bind the
+   * same port as the contexts cached before it.
+   */
+  private static final InMemoryDirectoryServer DIRECTORY = startDirectory();
+
+  @DynamicPropertySource
+  static void directoryProperties(DynamicPropertyRegistry registry) {
+    registry.add(
+        "examplelogin.app.ad.url", () -> "ldap://localhost:" + DIRECTORY.getListenPort() + "/");
+  }
+
+  /**
+   * Return the in-memory directory, for the tests adding users to it.
+   *
+   * @return the directory shared by the test contexts
+   */
+  protected static InMemoryDirectoryServer directory() {
+    return DIRECTORY;
+  }
+
+  private static InMemoryDirectoryServer startDirectory() {
+    try (InputStream ldif = BaseIntegrationTest.class.getResourceAsStream("/test-server.ldif")) {
+      InMemoryDirectoryServerConfig config =
+          new InMemoryDirectoryServerConfig("dc=springframework,dc=org");
+      config.addAdditionalBindCredentials("uid=admin", "secret");
+      config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap", 0));
+
+      InMemoryDirectoryServer directory = new InMemoryDirectoryServer(config);
+      directory.importFromLDIF(true, new LDIFReader(ldif));
+      directory.startListening();
+      return directory;
+    } catch (LDAPException | IOException e) {
+      throw new IllegalStateException("Failed to start the test directory", e);
+    }
+  }
 }
@@ -0,0 +1,67 @@
+package com.example.login;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * Clock and cache ticker of the test contexts: the system time plus the offset the tests advance
+ * it by, instead of sleeping until a TTL or the next second has passed.
+ */
+public class TestClock extends Clock implements Ticker {
+
+  private final AtomicLong offsetNanos = new AtomicLong();
+
+  /**
+   * Move the time forward, for the clock and the ticker alike.
+   *
+   * @param duration Value to advance by
+   */
+  public void advance(Duration duration) {
+    offsetNanos.addAndGet(duration.toNanos());
+  }
+
+  @Override
+  public ZoneId getZone() {
+    return ZoneOffset.UTC;
+  }
+
+  @Override
+  public Clock withZone(ZoneId zone) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Instant instant() {
+    return Instant.now().plusNanos(offsetNanos.get());
+  }
+
+  @Override
+  public long millis() {
+    return System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(offsetNanos.get());
+  }
+
+  @Override
+  public long read() {
+    return System.nanoTime() + offsetNanos.get();
+  }
+
+  /** Replaces the time sources of {@link ClockConfig}. */
+  @TestConfiguration
+  public static class Config {
+
+    @Bean
+    @Primary
+    public TestClock testClock() {
+      return new TestClock();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package com.example.login.controllers;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.models.ERole;
+import com.example.login.models.Role;
+import com.example.login.models.User;
+import com.example.login.payload.request.BatchTokenVerificationRequest;
+import com.example.login.repository.RoleRepository;
+import com.example.login.repository.UserRepository;
+import com.example.login.security.jwt.JwtUtils;
+import com.example.login.security.services.PersistentTokenStore;
+import com.example.login.security.services.TokenDetailsServiceImpl;
+import com.example.login.security.services.UserDetailsServiceImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+
+public class AuthControllerIntegrationTests extends BaseIntegrationTest {
+
+  private static final String USERNAME = "batchuser";
+
+  private static final String LDAP_USERNAME = "bob";
+
+  @Autowired MockMvc mvc;
+
+  @Autowired ObjectMapper objectMapper;
+
+  @Autowired JwtUtils jwtUtils;
+
+  @Autowired UserDetailsServiceImpl userDetailsService;
+
+  @Autowired TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired PersistentTokenStore tokenStore;
+
+  @Autowired UserRepository userRepository;
+
+  @Autowired RoleRepository roleRepository;
+
+  @Before
+  public void setUp() {
+    Role role =
+        roleRepository
+            .findByName(ERole.ROLE_USER)
+            .orElseGet(() -> roleRepository.save(new Role(null, ERole.ROLE_USER)));
+
+    User user = new User(USERNAME, "somerandompassword");
+    user.getRoles().add(role);
+    userRepository.save(user);
+    userDetailsService.evict(USERNAME);
+  }
+
+  @After
+  public void tearDown() {
+    userRepository.findByUsername(USERNAME).ifPresent(userRepository::delete);
+    tokenStore.removeByUsername(LDAP_USERNAME);
+  }
+
+  @Test
+  public void verifyBatch_returnsOneResultPerJwtInRequestOrder() throws Exception {
+    UserDetails principal = userDetailsService.loadUserByUsername(USERNAME);
+    String daoJwt =
+        jwtUtils.generateJwtToken(
+            new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+    UsernamePasswordAuthenticationToken ldapSignIn =
+        new UsernamePasswordAuthenticationToken(
+            LDAP_USERNAME, null, AuthorityUtils.createAuthorityList("ROLE_DOMAIN_USERS"));
+    String ldapJwt = jwtUtils.generateJwtToken(ldapSignIn);
+    tokenDetailsService.onLoginSuccess(ldapSignIn, ldapJwt);
+    // Signed, but its user never signed in
+    String unsavedJwt =
+        jwtUtils.generateJwtToken(
+            new UsernamePasswordAuthenticationToken("unknown", null, Collections.emptyList()));
+
+    verifyBatch(Arrays.asList(ldapJwt, "not.a.jwt", daoJwt, unsavedJwt, ldapJwt))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.results.length()").value(5))
+        .andExpect(jsonPath("$.results[0].token").value(ldapJwt))
+        .andExpect(jsonPath("$.results[0].valid").value(true))
+        .andExpect(jsonPath("$.results[0].user.username").value(LDAP_USERNAME))
+        .andExpect(jsonPath("$.results[1].token").value("not.a.jwt"))
+        .andExpect(jsonPath("$.results[1].valid").value(false))
+        .andExpect(jsonPath("$.results[1].message").value("Error: Invalid token!"))
+        .andExpect(jsonPath("$.results[2].valid").value(true))
+        .andExpect(jsonPath("$.results[2].user.username").value(USERNAME))
+        .andExpect(jsonPath("$.results[2].user.roles[0]").value(ERole.ROLE_USER.name()))
+        .andExpect(jsonPath("$.results[3].token").value(unsavedJwt))
+        .andExpect(jsonPath("$.results[3].valid").value(false))
+        // A jwt repeated in the batch gets the same result
+        .andExpect(jsonPath("$.results[4].valid").value(true))
+        .andExpect(jsonPath("$.results[4].user.username").value(LDAP_USERNAME));
+  }
+
+  @Test
+  public void verifyBatch_whenEmpty_isBadRequest() throws Exception {
+    mvc.perform(
+            post("/api/auth/verify/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(batch(Collections.emptyList()))))
+        .andExpect(status().isBadRequest());
+  }
+
+  private ResultActions verifyBatch(List<String> tokens) throws Exception {
+    MvcResult result =
+        mvc.perform(
+                post("/api/auth/verify/batch")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(batch(tokens))))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    return mvc.perform(asyncDispatch(result));
+  }
+
+  private static BatchTokenVerificationRequest batch(List<String> tokens) {
+    return BatchTokenVerificationRequest.builder().tokens(tokens).build();
+  }
+}
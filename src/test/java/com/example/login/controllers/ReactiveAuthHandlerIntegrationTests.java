@@ -0,0 +1,214 @@
+package com.example.login.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.TestClock;
+import com.example.login.payload.request.LoginRequest;
+import com.example.login.payload.request.SignupRequest;
+import com.example.login.payload.request.TokenVerificationRequest;
+import com.example.login.payload.response.JwtResponse;
+import com.example.login.repository.UserRepository;
+import com.example.login.security.jwt.JwtUtils;
+import com.example.login.security.services.PersistentTokenStore;
+import com.example.login.security.services.ReactiveUserDetailsServiceImpl;
+import com.example.login.security.services.TokenDetailsServiceImpl;
+import com.example.login.security.services.UserDetailsServiceImpl;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.time.Duration;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+@ActiveProfiles("reactive")
+@TestPropertySource(properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+public class ReactiveAuthHandlerIntegrationTests extends BaseIntegrationTest {
+
+  private static final String USERNAME = "reactiveuser";
+
+  private static final String PASSWORD = "somerandompassword";
+
+  private static final String LDAP_USERNAME = "bob";
+
+  @Autowired WebTestClient webTestClient;
+
+  @Autowired JwtUtils jwtUtils;
+
+  @Autowired TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired PersistentTokenStore tokenStore;
+
+  @Autowired UserRepository userRepository;
+
+  @Autowired ReactiveUserDetailsServiceImpl reactiveUserDetailsService;
+
+  @Autowired UserDetailsServiceImpl userDetailsService;
+
+  @Autowired PasswordEncoder passwordEncoder;
+
+  @Autowired TestClock clock;
+
+  @After
+  public void tearDown() {
+    userRepository.findByUsername(USERNAME).ifPresent(userRepository::delete);
+    tokenStore.removeByUsername(LDAP_USERNAME);
+  }
+
+  @Test
+  public void signupSigninVerifySignout() {
+    SignupRequest signup = SignupRequest.builder().username(USERNAME).password(PASSWORD).build();
+    post("/api/auth/signup", signup)
+        .expectStatus()
+        .isOk()
+        .expectBody()
+        .jsonPath("$.message")
+        .isEqualTo("User registered successfully!");
+    post("/api/auth/signup", signup)
+        .expectStatus()
+        .isBadRequest()
+        .expectBody()
+        .jsonPath("$.message")
+        .isEqualTo("Error: Username is already taken!");
+
+    JwtResponse signedIn =
+        post("/api/auth/signin", new LoginRequest(USERNAME, PASSWORD))
+            .expectStatus()
+            .isOk()
+            .expectBody(JwtResponse.class)
+            .returnResult()
+            .getResponseBody();
+    String jwt = signedIn.getToken();
+    assertTrue(signedIn.getRoles().contains("ROLE_USER"));
+
+    verify(jwt).expectStatus().isOk().expectBody().jsonPath("$.username").isEqualTo(USERNAME);
+
+    webTestClient
+        .post()
+        .uri("/api/auth/signout")
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)
+        .exchange()
+        .expectStatus()
+        .isOk();
+    // Revoked
+    verify(jwt).expectStatus().isBadRequest();
+  }
+
+  @Test
+  public void signin_withWrongPassword_isUnauthorized() {
+    post(
+            "/api/auth/signup",
+            SignupRequest.builder().username(USERNAME).password(PASSWORD).build())
+        .expectStatus()
+        .isOk();
+
+    post("/api/auth/signin", new LoginRequest(USERNAME, "wrongpassword"))
+        .expectStatus()
+        .isUnauthorized();
+  }
+
+  @Test
+  public void signup_whenNotValid_isBadRequest() {
+    post("/api/auth/signup", SignupRequest.builder().username("ab").password(PASSWORD).build())
+        .expectStatus()
+        .isBadRequest();
+  }
+
+  @Test
+  public void verify_ldapJwt_readsTheSavedTokenThroughR2dbc() {
+    String jwt = ldapSignIn();
+    tokenStore.flush();
+    // Not in memory any more
+    tokenStore.evict(Collections.singleton(LDAP_USERNAME));
+
+    verify(jwt)
+        .expectStatus()
+        .isOk()
+        .expectBody()
+        .jsonPath("$.username")
+        .isEqualTo(LDAP_USERNAME);
+  }
+
+  @Test
+  public void verify_ldapJwtOfAReplacedSeries_deletesTheToken() {
+    String stolen = ldapSignIn();
+    // The issue date of a jwt is truncated to the second
+    clock.advance(Duration.ofSeconds(1));
+    ldapSignIn();
+
+    verify(stolen).expectStatus().isBadRequest();
+
+    assertFalse(tokenStore.findByUsername(LDAP_USERNAME).isPresent());
+  }
+
+  @Test
+  public void findByUsername_readsThroughTheUserCache() {
+    signup();
+    CacheStats before = userDetailsService.stats();
+
+    reactiveUserDetailsService.findByUsername(USERNAME).block();
+    reactiveUserDetailsService.findByUsername(USERNAME).block();
+    userDetailsService.loadUserByUsername(USERNAME);
+
+    CacheStats after = userDetailsService.stats().minus(before);
+    assertEquals(1, after.missCount());
+    assertEquals(2, after.hitCount());
+  }
+
+  @Test
+  public void updatePassword_evictsTheCachedPrincipal() {
+    signup();
+    UserDetails principal = reactiveUserDetailsService.findByUsername(USERNAME).block();
+    String newPassword = passwordEncoder.encode(PASSWORD);
+
+    UserDetails updated =
+        reactiveUserDetailsService.updatePassword(principal, newPassword).block();
+
+    assertEquals(newPassword, updated.getPassword());
+    assertEquals(newPassword, userDetailsService.loadUserByUsername(USERNAME).getPassword());
+    assertEquals(
+        newPassword, reactiveUserDetailsService.findByUsername(USERNAME).block().getPassword());
+  }
+
+  @Test
+  public void actuator_requiresAuthentication() {
+    webTestClient.get().uri("/actuator/info").exchange().expectStatus().isUnauthorized();
+  }
+
+  private void signup() {
+    post(
+            "/api/auth/signup",
+            SignupRequest.builder().username(USERNAME).password(PASSWORD).build())
+        .expectStatus()
+        .isOk();
+  }
+
+  private String ldapSignIn() {
+    UsernamePasswordAuthenticationToken signIn =
+        new UsernamePasswordAuthenticationToken(
+            LDAP_USERNAME, null, AuthorityUtils.createAuthorityList("ROLE_DOMAIN_USERS"));
+    String jwt = jwtUtils.generateJwtToken(signIn);
+    tokenDetailsService.onLoginSuccess(signIn, jwt);
+    return jwt;
+  }
+
+  private WebTestClient.ResponseSpec verify(String jwt) {
+    return post("/api/auth/verify", TokenVerificationRequest.builder().token(jwt).build());
+  }
+
+  private WebTestClient.ResponseSpec post(String uri, Object body) {
+    return webTestClient.post().uri(uri).bodyValue(body).exchange();
+  }
+}
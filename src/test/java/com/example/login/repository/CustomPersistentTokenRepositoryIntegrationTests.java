@@ -0,0 +1,70 @@
+package com.example.login.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.models.CustomPersistentToken;
+import com.example.login.models.ERole;
+import com.example.login.models.Role;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional
+public class CustomPersistentTokenRepositoryIntegrationTests extends BaseIntegrationTest {
+
+  private static final String USERNAME = "upsertuser";
+
+  @Autowired CustomPersistentTokenRepository tokenRepository;
+
+  @Autowired RoleRepository roleRepository;
+
+  private Role userRole;
+
+  private Role adminRole;
+
+  @Before
+  public void setUp() {
+    userRole = findOrCreate(ERole.ROLE_USER);
+    adminRole = findOrCreate(ERole.ROLE_ADMIN);
+  }
+
+  @Test
+  public void upsert_whenExists_rotatesTokenInPlace() {
+    Long id =
+        tokenRepository.upsert(
+            new CustomPersistentToken(
+                USERNAME, "series1", new Date(), Collections.singleton(userRole)));
+    Long rotatedId =
+        tokenRepository.upsert(
+            new CustomPersistentToken(
+                USERNAME, "series2", new Date(), Collections.singleton(adminRole)));
+
+    assertEquals(id, rotatedId);
+
+    List<TokenCredentials> rows = tokenRepository.findCredentialsByUsername(USERNAME);
+    assertThat(rows).extracting("series").containsOnly("series2");
+    assertThat(rows).extracting("roleName").containsExactly(ERole.ROLE_ADMIN);
+  }
+
+  @Test
+  public void upsert_withoutRoles_givesUserRole() {
+    tokenRepository.upsert(
+        new CustomPersistentToken(USERNAME, "series1", new Date(), Collections.emptySet()));
+
+    assertThat(tokenRepository.findCredentialsByUsername(USERNAME))
+        .extracting("roleName")
+        .containsExactly(ERole.ROLE_USER);
+  }
+
+  private Role findOrCreate(ERole name) {
+    return roleRepository
+        .findByName(name)
+        .orElseGet(() -> roleRepository.save(new Role(null, name)));
+  }
+}
@@ -0,0 +1,61 @@
+package com.example.login.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.login.BaseIntegrationTest;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+/** Verifies with EXPLAIN that the repository lookups use the migrated indexes. */
+@Transactional
+public class SchemaMigrationIntegrationTests extends BaseIntegrationTest {
+
+  @Autowired JdbcTemplate jdbcTemplate;
+
+  @Before
+  public void setUp() {
+    // Empty test tables would otherwise be scanned sequentially whatever the indexes
+    jdbcTemplate.execute("set local enable_seqscan = off");
+  }
+
+  @Test
+  public void deleteBySeries_usesSeriesIndex() {
+    assertThat(explain("delete from persistent_tokens where series = 'series'"))
+        .contains("persistent_tokens_series_idx");
+  }
+
+  @Test
+  public void findCredentialsByUsername_usesIndex() {
+    assertThat(explain("select id, password from users where username = 'johndoe'"))
+        .contains("Index")
+        .doesNotContain("Seq Scan");
+    assertThat(
+            explain(
+                "select persistent_tokens_id, series from persistent_tokens"
+                    + " where username = 'johndoe'"))
+        .contains("Index")
+        .doesNotContain("Seq Scan");
+  }
+
+  @Test
+  public void usernameIndexes_coverTheLookupColumns() {
+    assertThat(indexDefinition("users_username_covering_idx"))
+        .contains("INCLUDE (id, password, credentials_version)");
+    assertThat(indexDefinition("persistent_tokens_username_covering_idx"))
+        .contains("INCLUDE (persistent_tokens_id, series, last_used)");
+  }
+
+  private String explain(String sql) {
+    List<String> plan = jdbcTemplate.queryForList("explain " + sql, String.class);
+    return String.join("\n", plan);
+  }
+
+  private String indexDefinition(String name) {
+    return jdbcTemplate.queryForObject(
+        "select indexdef from pg_indexes where indexname = ?", String.class, name);
+  }
+}
@@ -9,11 +9,11 @@ import java.util.Optional;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
-import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
 public class UserRepositoryIntegrationTests extends BaseIntegrationTest {
 
-  @MockBean UserRepository userRepository;
+  @MockitoBean UserRepository userRepository;
 
   @Before
   public void setUp() {
@@ -0,0 +1,32 @@
+package com.example.login.security;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.login.BaseIntegrationTest;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.test.web.servlet.MockMvc;
+
+// The metrics are only exported in the tests that ask for them
+@AutoConfigureObservability
+public class WebSecurityConfigIntegrationTests extends BaseIntegrationTest {
+
+  @Autowired MockMvc mvc;
+
+  @Test
+  public void health_isPublic() throws Exception {
+    mvc.perform(get("/actuator/health")).andExpect(status().isOk());
+  }
+
+  @Test
+  public void prometheus_requiresAdmin() throws Exception {
+    mvc.perform(get("/actuator/prometheus")).andExpect(status().isUnauthorized());
+    mvc.perform(get("/actuator/prometheus").with(user("bob").roles("USER")))
+        .andExpect(status().isForbidden());
+    mvc.perform(get("/actuator/prometheus").with(user("admin").roles("ADMIN")))
+        .andExpect(status().isOk());
+  }
+}
@@ -0,0 +1,137 @@
+package com.example.login.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.login.BaseIntegrationTest;
+import com.jayway.jsonpath.JsonPath;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.sql.Timestamp;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+@TestPropertySource(properties = "examplelogin.app.jwtKeys.enabled=true")
+public class JwtKeyRingIntegrationTests extends BaseIntegrationTest {
+
+  private static final long ROTATION_MS = 86400000;
+
+  @Autowired JwtKeyRing keyRing;
+
+  @Autowired JwtUtils jwtUtils;
+
+  @Autowired JdbcTemplate jdbcTemplate;
+
+  @Autowired MockMvc mvc;
+
+  private String legacyKid;
+
+  @After
+  public void tearDown() {
+    if (legacyKid != null) {
+      jdbcTemplate.update("delete from jwt_signing_keys where kid = ?", legacyKid);
+    }
+  }
+
+  @Test
+  public void privateKeys_areStoredEncrypted() {
+    JwtSigningKey signingKey = keyRing.signingKey();
+
+    byte[] stored =
+        jdbcTemplate.queryForObject(
+            "select private_key from jwt_signing_keys where kid = ? and encrypted",
+            byte[].class,
+            signingKey.getKid());
+
+    assertNotNull(stored);
+    assertThat(stored).isNotEqualTo(signingKey.getPrivateKey().getEncoded());
+  }
+
+  @Test
+  public void refresh_encryptsTheKeysStoredUnencrypted() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    KeyPair keyPair = generator.generateKeyPair();
+    legacyKid = UUID.randomUUID().toString();
+    long now = System.currentTimeMillis();
+    jdbcTemplate.update(
+        "insert into jwt_signing_keys (kid, private_key, public_key, activates_at, expires_at)"
+            + " values (?, ?, ?, ?, ?)",
+        legacyKid,
+        keyPair.getPrivate().getEncoded(),
+        keyPair.getPublic().getEncoded(),
+        new Timestamp(now + 2 * ROTATION_MS),
+        new Timestamp(now + 4 * ROTATION_MS));
+
+    keyRing.refresh();
+
+    assertTrue(
+        jdbcTemplate.queryForObject(
+            "select encrypted from jwt_signing_keys where kid = ?", Boolean.class, legacyKid));
+    assertArrayEquals(
+        keyPair.getPrivate().getEncoded(),
+        keyRing.findKey(legacyKid).getPrivateKey().getEncoded());
+  }
+
+  @Test
+  public void refresh_whenRotationDue_signsWithTheNextKeyAndKeepsThePreviousOne() {
+    String jwt = jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken("bob", null));
+    JwtSigningKey previous = keyRing.signingKey();
+    // One rotation later
+    jdbcTemplate.update(
+        "update jwt_signing_keys set activates_at = activates_at - ? * interval '1 millisecond'",
+        ROTATION_MS);
+
+    keyRing.refresh();
+
+    JwtSigningKey current = keyRing.signingKey();
+    assertNotEquals(previous.getKid(), current.getKid());
+    assertNotNull(keyRing.findKey(previous.getKid()));
+    // Published ahead
+    assertTrue(
+        keyRing.publishedKeys().stream()
+            .anyMatch(key -> key.getActivatesAt().after(current.getActivatesAt())));
+    assertTrue(jwtUtils.validateJwtToken(jwt));
+  }
+
+  @Test
+  public void jwks_publishesThePublicKeysOnly() throws Exception {
+    keyRing.refresh();
+    String kid = keyRing.signingKey().getKid();
+
+    MvcResult result =
+        mvc.perform(get("/.well-known/jwks.json"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.keys.length()").value(keyRing.publishedKeys().size()))
+            .andExpect(jsonPath("$.keys[?(@.kid == '" + kid + "')].kty").value("EC"))
+            .andExpect(jsonPath("$.keys[?(@.kid == '" + kid + "')].crv").value("P-256"))
+            .andExpect(jsonPath("$.keys[?(@.kid == '" + kid + "')].alg").value("ES256"))
+            .andExpect(jsonPath("$.keys[*].d").doesNotExist())
+            .andExpect(header().exists("ETag"))
+            .andReturn();
+    // Unpadded Base64url of a P-256 coordinate
+    String x = JsonPath.read(result.getResponse().getContentAsString(), "$.keys[0].x");
+    assertEquals(43, x.length());
+
+    mvc.perform(
+            get("/.well-known/jwks.json")
+                .header("If-None-Match", result.getResponse().getHeader("ETag")))
+        .andExpect(status().isNotModified());
+  }
+}
@@ -0,0 +1,65 @@
+package com.example.login.security.jwt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.login.BaseIntegrationTest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+public class JwtUtilsIntegrationTests extends BaseIntegrationTest {
+
+  @Autowired JwtUtils jwtUtils;
+
+  @Autowired MeterRegistry meterRegistry;
+
+  @Test
+  public void revokeJwtToken_rejectsOnlyTheRevokedJwt() {
+    UsernamePasswordAuthenticationToken authentication =
+        new UsernamePasswordAuthenticationToken("bob", null);
+    String revoked = jwtUtils.generateJwtToken(authentication);
+    String other = jwtUtils.generateJwtToken(authentication);
+    // Cached claims too
+    assertTrue(jwtUtils.validateJwtToken(revoked));
+
+    jwtUtils.revokeJwtToken(revoked);
+
+    assertFalse(jwtUtils.validateJwtToken(revoked));
+    assertTrue(jwtUtils.validateJwtToken(other));
+  }
+
+  @Test
+  public void validateJwtToken_rejectsGarbageBeforeParsing() {
+    String jwt = jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken("bob", null));
+    String[] segments = jwt.split("\\.");
+    long parsed = meterRegistry.get("auth.jwt.parse").timer().count();
+
+    assertRejectedBeforeParsing(segments[0] + "." + segments[1], "segments");
+    assertRejectedBeforeParsing(segments[0] + ".." + segments[2], "segments");
+    assertRejectedBeforeParsing(jwt + "=", "alphabet");
+    assertRejectedBeforeParsing("eyJhbGciOiJub25lIn0." + segments[1] + ".", "header");
+    assertRejectedBeforeParsing("not a jwt", "header");
+    assertRejectedBeforeParsing(jwt + "a".repeat(8192), "length");
+    // None reached the parser
+    assertEquals(parsed, meterRegistry.get("auth.jwt.parse").timer().count());
+
+    assertTrue(jwtUtils.validateJwtToken(jwt));
+  }
+
+  private void assertRejectedBeforeParsing(String token, String reason) {
+    double rejected = failures(reason);
+
+    assertFalse(jwtUtils.validateJwtToken(token));
+    assertEquals(rejected + 1, failures(reason), 0);
+  }
+
+  private double failures(String reason) {
+    Counter counter =
+        meterRegistry.find("auth.jwt.validation.failures").tag("reason", reason).counter();
+    return counter != null ? counter.count() : 0;
+  }
+}
@@ -0,0 +1,198 @@
+package com.example.login.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.TestClock;
+import com.example.login.models.ERole;
+import com.example.login.models.Role;
+import com.example.login.models.User;
+import com.example.login.repository.RoleRepository;
+import com.example.login.repository.UserRepository;
+import com.example.login.security.services.PersistentTokenStore;
+import com.example.login.security.services.TokenDetailsImpl;
+import com.example.login.security.services.TokenDetailsServiceImpl;
+import com.example.login.security.services.UserDetailsImpl;
+import com.example.login.security.services.UserDetailsServiceImpl;
+import java.time.Duration;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.CredentialsExpiredException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@TestPropertySource(
+    properties = {
+      "examplelogin.app.stateless.enabled=true",
+      "examplelogin.app.stateless.revalidateMs=200"
+    })
+public class UserDetailsVerificationUtilsIntegrationTests extends BaseIntegrationTest {
+
+  private static final String USERNAME = "statelessuser";
+
+  private static final String PASSWORD = "somerandompassword";
+
+  private static final String LDAP_USERNAME = "bob";
+
+  /** Past revalidateMs. */
+  private static final long REVALIDATE_WAIT_MS = 400;
+
+  @Autowired UserDetailsVerificationUtils userDetailsVerificationUtils;
+
+  @Autowired UserDetailsServiceImpl userDetailsService;
+
+  @Autowired TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired PersistentTokenStore tokenStore;
+
+  @Autowired JwtUtils jwtUtils;
+
+  @Autowired UserRepository userRepository;
+
+  @Autowired RoleRepository roleRepository;
+
+  @Autowired PlatformTransactionManager transactionManager;
+
+  @Autowired DaoAuthenticationProvider daoAuthenticationProvider;
+
+  @Autowired TestClock clock;
+
+  @Before
+  public void setUp() {
+    User user = new User(USERNAME, PASSWORD);
+    user.getRoles().add(role(ERole.ROLE_USER));
+    userRepository.save(user);
+    userDetailsService.evict(USERNAME);
+  }
+
+  @After
+  public void tearDown() {
+    userRepository.findByUsername(USERNAME).ifPresent(userRepository::delete);
+    tokenStore.removeByUsername(LDAP_USERNAME);
+  }
+
+  @Test
+  public void verify_statelessDaoJwt_isBuiltFromItsClaims() {
+    String jwt = signIn();
+
+    UsernamePasswordAuthenticationToken authentication = verify(jwt);
+
+    UserDetailsImpl principal = (UserDetailsImpl) authentication.getPrincipal();
+    assertEquals(userRepository.findByUsername(USERNAME).get().getId(), principal.getId());
+    assertThat(authentication.getAuthorities())
+        .extracting("authority")
+        .containsExactly(ERole.ROLE_USER.name());
+  }
+
+  @Test
+  public void verify_whenRolesChanged_revokesTheJwtOnceRevalidated() {
+    String jwt = signIn();
+    verify(jwt);
+    Role adminRole = role(ERole.ROLE_ADMIN);
+    new TransactionTemplate(transactionManager)
+        .executeWithoutResult(
+            status -> userRepository.findByUsername(USERNAME).get().getRoles().add(adminRole));
+
+    // Still trusted within revalidateMs
+    assertThat(verify(jwt).getAuthorities())
+        .extracting("authority")
+        .containsExactly(ERole.ROLE_USER.name());
+
+    clock.advance(Duration.ofMillis(REVALIDATE_WAIT_MS));
+    try {
+      verify(jwt);
+      fail("A jwt granting other roles than the store must be rejected");
+    } catch (CredentialsExpiredException e) {
+      // The user signs in again
+    }
+    assertFalse(jwtUtils.validateJwtToken(jwt));
+  }
+
+  @Test
+  public void verify_whenThePasswordHashIsUpgradedOnSignIn_keepsTheJwtValid() {
+    // An unprefixed hash of a lower work factor, upgraded by the next sign in
+    String legacyHash = new BCryptPasswordEncoder(4).encode(PASSWORD);
+    updateUser(user -> user.setPassword(legacyHash));
+    String jwt = signIn();
+
+    Authentication upgraded =
+        daoAuthenticationProvider.authenticate(
+            new UsernamePasswordAuthenticationToken(USERNAME, PASSWORD));
+    String upgradedJwt = jwtUtils.generateJwtToken(upgraded);
+    assertNotEquals(legacyHash, userRepository.findByUsername(USERNAME).get().getPassword());
+
+    verify(jwt);
+    verify(upgradedJwt);
+    assertTrue(jwtUtils.validateJwtToken(jwt));
+  }
+
+  @Test
+  public void verify_whenThePasswordChanged_revokesTheJwt() {
+    String jwt = signIn();
+    updateUser(user -> user.setCredentialsVersion(user.getCredentialsVersion() + 1));
+
+    try {
+      verify(jwt);
+      fail("A jwt issued before a password change must be rejected");
+    } catch (CredentialsExpiredException e) {
+      // The user signs in again with the new password
+    }
+    assertFalse(jwtUtils.validateJwtToken(jwt));
+  }
+
+  @Test
+  public void verify_statelessLdapJwt_isBuiltFromItsClaimsAndTheSavedToken() {
+    UsernamePasswordAuthenticationToken signIn =
+        new UsernamePasswordAuthenticationToken(
+            LDAP_USERNAME, null, AuthorityUtils.createAuthorityList("ROLE_DOMAIN_USERS"));
+    String jwt = jwtUtils.generateJwtToken(signIn);
+    TokenDetailsImpl saved = tokenDetailsService.onLoginSuccess(signIn, jwt);
+
+    UsernamePasswordAuthenticationToken authentication = verify(jwt);
+
+    TokenDetailsImpl principal = (TokenDetailsImpl) authentication.getPrincipal();
+    assertEquals(saved.getId(), principal.getId());
+    assertTrue(tokenDetailsService.compareSeries(jwt, principal.getPassword()));
+    assertThat(authentication.getAuthorities())
+        .extracting("authority")
+        .containsExactlyInAnyOrderElementsOf(
+            AuthorityUtils.authorityListToSet(saved.getAuthorities()));
+  }
+
+  private String signIn() {
+    UserDetails principal = userDetailsService.loadUserByUsername(USERNAME);
+    return jwtUtils.generateJwtToken(
+        new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+  }
+
+  private UsernamePasswordAuthenticationToken verify(String jwt) {
+    return userDetailsVerificationUtils.verify(jwtUtils.parseJwtToken(jwt).get(), jwt);
+  }
+
+  private void updateUser(Consumer<User> update) {
+    new TransactionTemplate(transactionManager)
+        .executeWithoutResult(
+            status -> update.accept(userRepository.findByUsername(USERNAME).get()));
+  }
+
+  private Role role(ERole name) {
+    return roleRepository
+        .findByName(name)
+        .orElseGet(() -> roleRepository.save(new Role(null, name)));
+  }
+}
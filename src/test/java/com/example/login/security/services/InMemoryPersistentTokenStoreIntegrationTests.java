@@ -0,0 +1,237 @@
+package com.example.login.security.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.TestClock;
+import com.example.login.models.ERole;
+import com.example.login.repository.CustomPersistentTokenRepository;
+import com.example.login.repository.TokenCredentials;
+import com.example.login.security.jwt.JwtUtils;
+import com.example.login.security.jwt.UserDetailsVerificationUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.web.authentication.rememberme.CookieTheftException;
+
+public class InMemoryPersistentTokenStoreIntegrationTests extends BaseIntegrationTest {
+
+  private static final String USERNAME = "bob";
+
+  /** Longer than the username column. */
+  private static final String UNWRITABLE_USERNAME = "b".repeat(256);
+
+  private static final long FLUSH_TIMEOUT_MS = 10000;
+
+  @Autowired PersistentTokenStore tokenStore;
+
+  @Autowired InMemoryPersistentTokenStore inMemoryTokenStore;
+
+  @Autowired TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired UserDetailsVerificationUtils userDetailsVerificationUtils;
+
+  @Autowired CustomPersistentTokenRepository tokenRepository;
+
+  @Autowired JwtUtils jwtUtils;
+
+  @Autowired JdbcTemplate jdbcTemplate;
+
+  @Autowired MeterRegistry meterRegistry;
+
+  @Autowired TestClock clock;
+
+  @After
+  public void tearDown() {
+    tokenStore.removeByUsername(USERNAME);
+    tokenStore.removeByUsername(UNWRITABLE_USERNAME);
+  }
+
+  @Test
+  public void saveBehind_isWrittenByTheWriter() throws InterruptedException {
+    signIn("ROLE_DOMAIN_USERS");
+    String rotated = signIn("ROLE_ADMIN");
+    String series = tokenDetailsService.generateSeriesData(rotated);
+
+    // Served from memory before written
+    assertEquals(series, tokenStore.findByUsername(USERNAME).get().getPassword());
+
+    long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MS;
+    List<TokenCredentials> rows = tokenRepository.findCredentialsByUsername(USERNAME);
+    // The first sign in is queued too, not written yet either
+    while (rows.isEmpty() || !series.equals(rows.get(0).getSeries())) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("The rotated token was not written");
+      }
+      Thread.sleep(100);
+      rows = tokenRepository.findCredentialsByUsername(USERNAME);
+    }
+    assertThat(rows).extracting("roleName").containsExactly(ERole.ROLE_ADMIN);
+  }
+
+  @Test
+  public void saveBehind_whenNotInMemory_doesNotReachTheRepository() {
+    // Not in memory
+    tokenStore.removeByUsername(USERNAME);
+    long calls = repositoryCalls("find") + repositoryCalls("save");
+
+    UsernamePasswordAuthenticationToken authentication = authentication("ROLE_DOMAIN_USERS");
+    TokenDetailsImpl token =
+        tokenDetailsService.onLoginSuccess(
+            authentication, jwtUtils.generateJwtToken(authentication));
+
+    // Queued with an allocated id
+    assertEquals(calls, repositoryCalls("find") + repositoryCalls("save"));
+    assertNotNull(token.getId());
+
+    tokenStore.flush();
+
+    assertThat(tokenRepository.findCredentialsByUsername(USERNAME))
+        .extracting("id")
+        .containsOnly(token.getId());
+  }
+
+  @Test
+  public void saveBehind_whenNotInMemory_replacesTheTokenOfItsUsername() {
+    signIn("ROLE_ADMIN");
+    tokenStore.flush();
+    Long id = tokenStore.findByUsername(USERNAME).get().getId();
+    // Written before a restart, no longer in memory
+    tokenStore.evict(Collections.singleton(USERNAME));
+    String rotated = signIn("ROLE_DOMAIN_USERS");
+
+    tokenStore.flush();
+
+    List<TokenCredentials> rows = tokenRepository.findCredentialsByUsername(USERNAME);
+    assertThat(rows)
+        .extracting("series")
+        .containsOnly(tokenDetailsService.generateSeriesData(rotated));
+    assertNotEquals(id, rows.get(0).getId());
+    assertEquals(
+        Integer.valueOf(0),
+        jdbcTemplate.queryForObject(
+            "select count(*) from token_roles where persistent_tokens_id = ?", Integer.class, id));
+  }
+
+  @Test
+  public void saveBehind_whenSweptBeforeWritten_isInsertedAgainWithItsId() {
+    signIn("ROLE_DOMAIN_USERS");
+    tokenStore.flush();
+    Long id = tokenStore.findByUsername(USERNAME).get().getId();
+    // Swept by another node, still in memory here
+    jdbcTemplate.update("delete from token_roles where persistent_tokens_id = ?", id);
+    jdbcTemplate.update("delete from persistent_tokens where persistent_tokens_id = ?", id);
+    String rotated = signIn("ROLE_DOMAIN_USERS");
+
+    tokenStore.flush();
+
+    List<TokenCredentials> rows = tokenRepository.findCredentialsByUsername(USERNAME);
+    assertThat(rows)
+        .extracting("series")
+        .containsOnly(tokenDetailsService.generateSeriesData(rotated));
+    assertEquals(id, rows.get(0).getId());
+  }
+
+  @Test
+  public void flush_whenATokenFailsToBeWritten_keepsItPendingAndWritesTheOthers() {
+    double failures = writeFailures();
+    // Written in one batch by the flush
+    inMemoryTokenStore.stop();
+    try {
+      String unwritable = signIn(UNWRITABLE_USERNAME, "ROLE_DOMAIN_USERS");
+      String jwt = signIn(USERNAME, "ROLE_DOMAIN_USERS");
+
+      tokenStore.flush();
+
+      assertThat(tokenRepository.findCredentialsByUsername(USERNAME))
+          .extracting("series")
+          .containsOnly(tokenDetailsService.generateSeriesData(jwt));
+      assertEquals(failures + 1, writeFailures(), 0);
+      // Served from memory until written
+      assertEquals(
+          tokenDetailsService.generateSeriesData(unwritable),
+          tokenStore.reloadByUsername(UNWRITABLE_USERNAME).get().getPassword());
+
+      tokenStore.flush();
+
+      // Retried
+      assertEquals(failures + 2, writeFailures(), 0);
+    } finally {
+      inMemoryTokenStore.start();
+    }
+  }
+
+  @Test
+  public void verify_whenRotatedOnAnotherNode_isNotTheft() {
+    signIn("ROLE_DOMAIN_USERS");
+    tokenStore.flush();
+    // Signed in on another node, not written yet
+    String rotated = jwtUtils.generateJwtToken(authentication("ROLE_DOMAIN_USERS"));
+
+    try {
+      userDetailsVerificationUtils.verify(jwtUtils.parseJwtToken(rotated).get(), rotated);
+      fail("The jwt of a token not written yet must be rejected");
+    } catch (AuthenticationServiceException e) {
+      // Rejected until written
+    }
+    assertFalse(tokenRepository.findCredentialsByUsername(USERNAME).isEmpty());
+  }
+
+  @Test
+  public void verify_whenIssuedBeforeTheStoredSeries_isTheft() {
+    String stolen = jwtUtils.generateJwtToken(authentication("ROLE_DOMAIN_USERS"));
+    // The issue date of a jwt is in seconds
+    clock.advance(Duration.ofSeconds(1));
+    signIn("ROLE_DOMAIN_USERS");
+
+    try {
+      userDetailsVerificationUtils.verify(jwtUtils.parseJwtToken(stolen).get(), stolen);
+      fail("A jwt older than the stored series must be taken for a theft");
+    } catch (CookieTheftException e) {
+      // All logins deleted
+    }
+    assertTrue(tokenRepository.findCredentialsByUsername(USERNAME).isEmpty());
+  }
+
+  private String signIn(String authority) {
+    return signIn(USERNAME, authority);
+  }
+
+  private String signIn(String username, String authority) {
+    UsernamePasswordAuthenticationToken authentication =
+        new UsernamePasswordAuthenticationToken(
+            username, null, AuthorityUtils.createAuthorityList(authority));
+    String jwt = jwtUtils.generateJwtToken(authentication);
+    tokenDetailsService.onLoginSuccess(authentication, jwt);
+    return jwt;
+  }
+
+  private long repositoryCalls(String operation) {
+    Timer timer = meterRegistry.find("auth.token.repository").tag("operation", operation).timer();
+    return timer != null ? timer.count() : 0;
+  }
+
+  private double writeFailures() {
+    return meterRegistry.get("auth.token.write.failures").counter().count();
+  }
+
+  private UsernamePasswordAuthenticationToken authentication(String authority) {
+    return new UsernamePasswordAuthenticationToken(
+        USERNAME, null, AuthorityUtils.createAuthorityList(authority));
+  }
+}
@@ -0,0 +1,65 @@
+package com.example.login.security.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.repository.CustomPersistentTokenRepository;
+import com.example.login.repository.TokenCredentials;
+import com.example.login.security.jwt.JwtUtils;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+public class PersistentTokenSweeperIntegrationTests extends BaseIntegrationTest {
+
+  private static final String USERNAME = "bob";
+
+  @Autowired PersistentTokenSweeper sweeper;
+
+  @Autowired PersistentTokenStore tokenStore;
+
+  @Autowired TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired CustomPersistentTokenRepository tokenRepository;
+
+  @Autowired JwtUtils jwtUtils;
+
+  @Autowired JdbcTemplate jdbcTemplate;
+
+  @After
+  public void tearDown() {
+    tokenStore.removeByUsername(USERNAME);
+  }
+
+  @Test
+  public void sweep_whenExpiredTokenRotatedBehind_keepsTheRotatedToken() {
+    Long id = signIn().getId();
+    jdbcTemplate.update(
+        "update persistent_tokens set last_used = ? where username = ?",
+        new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)),
+        USERNAME);
+    // Not written yet
+    TokenDetailsImpl rotated = signIn();
+
+    sweeper.sweep();
+
+    List<TokenCredentials> rows = tokenRepository.findCredentialsByUsername(USERNAME);
+    assertThat(rows).extracting("series").containsOnly(rotated.getPassword());
+    assertEquals(id, rows.get(0).getId());
+  }
+
+  private TokenDetailsImpl signIn() {
+    UsernamePasswordAuthenticationToken authentication =
+        new UsernamePasswordAuthenticationToken(
+            USERNAME, null, AuthorityUtils.createAuthorityList("ROLE_DOMAIN_USERS"));
+    return tokenDetailsService.onLoginSuccess(
+        authentication, jwtUtils.generateJwtToken(authentication));
+  }
+}
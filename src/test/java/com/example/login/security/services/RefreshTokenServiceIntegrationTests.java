@@ -0,0 +1,102 @@
+package com.example.login.security.services;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.models.ERole;
+import com.example.login.models.Role;
+import com.example.login.models.User;
+import com.example.login.repository.RefreshTokenRepository;
+import com.example.login.repository.RoleRepository;
+import com.example.login.repository.UserRepository;
+import com.example.login.security.jwt.JwtUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = "examplelogin.app.refresh.enabled=true")
+public class RefreshTokenServiceIntegrationTests extends BaseIntegrationTest {
+
+  private static final String USERNAME = "refreshuser";
+
+  @Autowired RefreshTokenService refreshTokenService;
+
+  @Autowired UserDetailsServiceImpl userDetailsService;
+
+  @Autowired JwtUtils jwtUtils;
+
+  @Autowired UserRepository userRepository;
+
+  @Autowired RoleRepository roleRepository;
+
+  @Autowired RefreshTokenRepository refreshTokenRepository;
+
+  private String accessToken;
+
+  private String refreshToken;
+
+  @Before
+  public void setUp() {
+    Role role =
+        roleRepository
+            .findByName(ERole.ROLE_USER)
+            .orElseGet(() -> roleRepository.save(new Role(null, ERole.ROLE_USER)));
+
+    User user = new User(USERNAME, "somerandompassword");
+    user.getRoles().add(role);
+    userRepository.save(user);
+    userDetailsService.evict(USERNAME);
+
+    UserDetails principal = userDetailsService.loadUserByUsername(USERNAME);
+    UsernamePasswordAuthenticationToken authentication =
+        new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+    accessToken = jwtUtils.generateJwtToken(authentication);
+    refreshToken = refreshTokenService.issue(authentication, accessToken);
+  }
+
+  @After
+  public void tearDown() {
+    refreshTokenRepository.findAll().stream()
+        .filter(token -> USERNAME.equals(token.getUsername()))
+        .forEach(refreshTokenRepository::delete);
+    userRepository.findByUsername(USERNAME).ifPresent(userRepository::delete);
+  }
+
+  @Test
+  public void refresh_rotatesTheRefreshToken() {
+    RefreshedToken refreshed = refreshTokenService.refresh(refreshToken);
+
+    assertNotEquals(refreshToken, refreshed.getRefreshToken());
+    assertTrue(jwtUtils.validateJwtToken(refreshed.getAccessToken()));
+    // The successor is usable once
+    refreshTokenService.refresh(refreshed.getRefreshToken());
+  }
+
+  @Test
+  public void refresh_whenReused_endsTheFamily() {
+    RefreshedToken refreshed = refreshTokenService.refresh(refreshToken);
+
+    try {
+      refreshTokenService.refresh(refreshToken);
+      fail("Reused refresh token accepted");
+    } catch (BadCredentialsException e) {
+      // Expected
+    }
+
+    try {
+      refreshTokenService.refresh(refreshed.getRefreshToken());
+      fail("Refresh token of an ended family accepted");
+    } catch (BadCredentialsException e) {
+      // Expected
+    }
+    assertFalse(jwtUtils.validateJwtToken(refreshed.getAccessToken()));
+  }
+}
@@ -0,0 +1,54 @@
+package com.example.login.security.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.security.jwt.JwtUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(
+    properties = {
+      "examplelogin.app.stateless.enabled=true",
+      "examplelogin.app.jwtKeys.enabled=true"
+    })
+public class StatelessTokenDetailsIntegrationTests extends BaseIntegrationTest {
+
+  private static final String USERNAME = "stateless.ldap.user@ad.test.com";
+
+  @Autowired TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired PersistentTokenStore tokenStore;
+
+  @Autowired JwtUtils jwtUtils;
+
+  @After
+  public void tearDown() {
+    tokenStore.removeByUsername(USERNAME);
+  }
+
+  @Test
+  public void onLoginSuccess_withStatelessEs256Jwt_savesItsSeries() {
+    UsernamePasswordAuthenticationToken authentication =
+        new UsernamePasswordAuthenticationToken(
+            USERNAME,
+            null,
+            AuthorityUtils.createAuthorityList(
+                "ROLE_DOMAIN_USERS", "ROLE_ADMIN", "ROLE_DOMAIN_ADMINS", "ROLE_REMOTE_DESKTOP"));
+    // kid header, jti and principal claims
+    String jwt = jwtUtils.generateJwtToken(authentication);
+    assertThat(jwt.length()).isGreaterThan(255);
+
+    TokenDetailsImpl saved = tokenDetailsService.onLoginSuccess(authentication, jwt);
+
+    TokenDetailsImpl reloaded = tokenStore.reloadByUsername(USERNAME).get();
+    assertEquals(saved.getId(), reloaded.getId());
+    assertTrue(tokenDetailsService.compareSeries(jwt, reloaded.getPassword()));
+  }
+}
@@ -0,0 +1,90 @@
+package com.example.login.security.services;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.TestClock;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class TokenDetailsServiceImplIntegrationTests extends BaseIntegrationTest {
+
+  @Autowired TokenDetailsServiceImpl tokenDetailsService;
+
+  @Autowired TestClock clock;
+
+  @Test
+  public void existsInLdap_whenExists() {
+    assertTrue(tokenDetailsService.existsInLdap("bob"));
+    // Served from the existence cache the second time
+    assertTrue(tokenDetailsService.existsInLdap("bob"));
+  }
+
+  @Test
+  public void existsInLdap_whenNotExists() {
+    assertFalse(tokenDetailsService.existsInLdap("peter"));
+  }
+
+  @Test
+  public void existsInLdap_whenCreatedAfterNotFound() throws Exception {
+    String dn = "uid=carol,ou=people,dc=springframework,dc=org";
+    assertFalse(tokenDetailsService.existsInLdap("carol"));
+
+    directory()
+        .add(
+            "dn: " + dn,
+            "objectclass: top",
+            "objectclass: person",
+            "objectclass: organizationalPerson",
+            "objectclass: inetOrgPerson",
+            "cn: Carol Smith",
+            "sn: Smith",
+            "uid: carol");
+    try {
+      // Past the TTL of a user not found
+      clock.advance(Duration.ofMillis(200));
+      assertTrue(tokenDetailsService.existsInLdap("carol"));
+    } finally {
+      directory().delete(dn);
+    }
+  }
+
+  @Test
+  public void existsInLdap_whenOutsideUserSearchBase() {
+    // joe is in ou=otherpeople
+    assertFalse(tokenDetailsService.existsInLdap("joe"));
+  }
+
+  @Test
+  public void compareSeries_againstTheDigestOfTheToken() {
+    String jwt = "header.payload.signature";
+    TokenDetailsImpl token = token(tokenDetailsService.generateSeriesData(jwt));
+
+    assertTrue(tokenDetailsService.compareSeries(jwt, token));
+    // Decoded once, the same digest is compared again
+    assertSame(token.getSeriesDigest(), token.getSeriesDigest());
+    assertFalse(tokenDetailsService.compareSeries("header.payload.other", token));
+  }
+
+  @Test
+  public void compareSeries_againstALegacySeries() {
+    String jwt = "header.payload.signature";
+    TokenDetailsImpl token =
+        token(Base64.getEncoder().encodeToString(jwt.getBytes(StandardCharsets.US_ASCII)));
+
+    assertTrue(tokenDetailsService.compareSeries(jwt, token));
+    assertTrue(tokenDetailsService.compareSeries(jwt, token.getPassword()));
+    assertFalse(tokenDetailsService.compareSeries("header.payload.other", token));
+    assertFalse(tokenDetailsService.compareSeries(jwt, token("not base64!")));
+  }
+
+  private static TokenDetailsImpl token(String series) {
+    return new TokenDetailsImpl(1L, "bob", series, Collections.emptyList(), null);
+  }
+}
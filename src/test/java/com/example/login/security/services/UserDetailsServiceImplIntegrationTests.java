@@ -0,0 +1,109 @@
+package com.example.login.security.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.example.login.BaseIntegrationTest;
+import com.example.login.models.ERole;
+import com.example.login.models.Role;
+import com.example.login.models.User;
+import com.example.login.repository.RoleRepository;
+import com.example.login.repository.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import java.util.concurrent.CompletableFuture;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class UserDetailsServiceImplIntegrationTests extends BaseIntegrationTest {
+
+  private static final String USERNAME = "graphuser";
+
+  @Autowired UserDetailsServiceImpl userDetailsService;
+
+  @Autowired UserRepository userRepository;
+
+  @Autowired RoleRepository roleRepository;
+
+  @Autowired EntityManagerFactory entityManagerFactory;
+
+  @Autowired PlatformTransactionManager transactionManager;
+
+  private Statistics statistics;
+
+  @Before
+  public void setUp() {
+    Role role =
+        roleRepository
+            .findByName(ERole.ROLE_USER)
+            .orElseGet(() -> roleRepository.save(new Role(null, ERole.ROLE_USER)));
+
+    User user = new User(USERNAME, "somerandompassword");
+    user.getRoles().add(role);
+    userRepository.save(user);
+    userDetailsService.evict(USERNAME);
+
+    statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+  }
+
+  @After
+  public void tearDown() {
+    userRepository.findByUsername(USERNAME).ifPresent(userRepository::delete);
+  }
+
+  @Test
+  public void loadUserByUsername_loadsUserAndRolesInOneQuery() {
+    UserDetailsImpl userDetails = (UserDetailsImpl) userDetailsService.loadUserByUsername(USERNAME);
+
+    assertThat(userDetails.getAuthorities())
+        .extracting("authority")
+        .containsExactly(ERole.ROLE_USER.name());
+    assertEquals(1, statistics.getPrepareStatementCount());
+  }
+
+  @Test
+  public void save_withOnlyRolesChanged_evictsUserDetails() {
+    userDetailsService.loadUserByUsername(USERNAME);
+    Role adminRole =
+        roleRepository
+            .findByName(ERole.ROLE_ADMIN)
+            .orElseGet(() -> roleRepository.save(new Role(null, ERole.ROLE_ADMIN)));
+
+    new TransactionTemplate(transactionManager)
+        .executeWithoutResult(
+            status -> userRepository.findByUsername(USERNAME).get().getRoles().add(adminRole));
+
+    assertThat(userDetailsService.loadUserByUsername(USERNAME).getAuthorities())
+        .extracting("authority")
+        .containsExactlyInAnyOrder(ERole.ROLE_USER.name(), ERole.ROLE_ADMIN.name());
+  }
+
+  @Test
+  public void save_whenLoadedBeforeTheCommit_evictsUserDetailsOnCommit() {
+    userDetailsService.loadUserByUsername(USERNAME);
+    Role adminRole =
+        roleRepository
+            .findByName(ERole.ROLE_ADMIN)
+            .orElseGet(() -> roleRepository.save(new Role(null, ERole.ROLE_ADMIN)));
+
+    new TransactionTemplate(transactionManager)
+        .executeWithoutResult(
+            status -> {
+              userRepository.findByUsername(USERNAME).get().getRoles().add(adminRole);
+              userRepository.flush();
+              // Another request, reading the committed row
+              CompletableFuture.runAsync(() -> userDetailsService.loadUserByUsername(USERNAME))
+                  .join();
+            });
+
+    assertThat(userDetailsService.loadUserByUsername(USERNAME).getAuthorities())
+        .extracting("authority")
+        .containsExactlyInAnyOrder(ERole.ROLE_USER.name(), ERole.ROLE_ADMIN.name());
+  }
+}